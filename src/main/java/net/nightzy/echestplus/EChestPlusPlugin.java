@@ -4,12 +4,28 @@ import net.nightzy.echestplus.commands.AdminCommand;
 import net.nightzy.echestplus.commands.AdminCommandTabCompleter;
 import net.nightzy.echestplus.config.ConfigManager;
 import net.nightzy.echestplus.listeners.EnderChestListener;
+import net.nightzy.echestplus.listeners.SessionListener;
 import net.nightzy.echestplus.listeners.UpgradeItemListener;
 import net.nightzy.echestplus.manager.EnderChestManager;
+import net.nightzy.echestplus.manager.NameResolver;
+import net.nightzy.echestplus.storage.AsyncDatabaseAdapter;
+import net.nightzy.echestplus.storage.ChangeFeed;
+import net.nightzy.echestplus.storage.ChestLeases;
 import net.nightzy.echestplus.storage.DatabaseFactory;
 import net.nightzy.echestplus.storage.DatabaseProvider;
+import net.nightzy.echestplus.storage.SaveJournal;
+import net.nightzy.echestplus.storage.SaveQueue;
+import net.nightzy.echestplus.storage.SwappableDatabase;
+import net.nightzy.echestplus.util.BlobCompressor;
+import net.nightzy.echestplus.util.ItemSerializer;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Main plugin class for EChestPlus.
  * Handles initialization of configuration, database, managers, listeners, and commands.
@@ -20,9 +36,16 @@ public class EChestPlusPlugin extends JavaPlugin {
     // Fields
     // ============================================================
 
-    private DatabaseProvider database;          // Database provider for persistent storage
+    private SwappableDatabase database;         // Database provider for persistent storage, replaced on reload
+    private AsyncDatabaseAdapter asyncDatabase; // Non-blocking view of the database provider
+    private SaveQueue saveQueue;                // Write-behind queue for chest contents
+    private SaveJournal journal;                // Crash journal for queued saves, null if disabled
+    private ChestLeases leases;                 // Chest ownership between servers, null if disabled
+    private ChangeFeed changeFeed;              // Cache refresh between servers, null if disabled
     private EnderChestManager enderChestManager; // Manager for player ender chests
     private ConfigManager configManager;         // Configuration manager
+    private final Object reloadLock = new Object(); // Serializes concurrent reloads
+    private String backend;                      // Backend the running provider was built for, see backendId()
 
     // ============================================================
     // Plugin Lifecycle
@@ -37,11 +60,78 @@ public class EChestPlusPlugin extends JavaPlugin {
             // Initialize configuration
             configManager = new ConfigManager(this);
 
+            // Configure compression of stored chest contents
+            ItemSerializer.setCompressor(createCompressor());
+
             // Initialize database provider
-            database = DatabaseFactory.create(this, configManager);
+            database = new SwappableDatabase(DatabaseFactory.create(this, configManager));
+            backend = backendId();
+
+            // Run provider calls off the server thread
+            asyncDatabase = new AsyncDatabaseAdapter(this, database, configManager.getStorageThreads());
+
+            // Name of this server for leases and the change feed
+            String server = configManager.getServerId();
+            if (server == null || server.isBlank()) server = UUID.randomUUID().toString().substring(0, 8);
+
+            // Claim chests against other servers sharing the database
+            if (configManager.isLeaseEnabled()) {
+                leases = createLeases(server);
+            }
+
+            // Recover saves that were lost in a crash before the queue starts, a failed replay stops the enable
+            if (configManager.isJournalEnabled()) {
+                journal = new SaveJournal(new File(getDataFolder(), "journal"), getLogger(), configManager.getJournalSyncInterval());
+                int replayed = journal.replay(database, leases != null ? leases::claim : uuid -> true);
+                if (replayed > 0) getLogger().info("Recovered " + replayed + " ender chests from the save journal.");
+            }
+
+            // Drop the claims of the replay and those a previous run under the same name left behind
+            if (leases != null) {
+                leases.releaseAll();
+                long renewInterval = Math.max(20L, leases.getTtl() / 50 / 3);
+                getServer().getScheduler().runTaskTimerAsynchronously(this, leases::renew, renewInterval, renewInterval);
+            }
+
+            // Start background storage writers
+            long flushInterval = configManager.getFlushInterval();
+            saveQueue = new SaveQueue(
+                database, getLogger(),
+                configManager.getSaveQueueCapacity(), configManager.getStorageThreads(),
+                configManager.getSaveBatchSize(), flushInterval > 0, journal
+            );
+
+            // Group commit: write everything that became dirty during each interval together
+            if (flushInterval > 0) {
+                getServer().getScheduler().runTaskTimerAsynchronously(this, saveQueue::flush, flushInterval, flushInterval);
+            }
+
+            // Announce chest changes to other servers sharing the database
+            if (configManager.isChangeFeedEnabled()) {
+                changeFeed = new ChangeFeed(
+                    database,
+                    task -> getServer().getScheduler().runTaskAsynchronously(this, task),
+                    getLogger(),
+                    server,
+                    configManager.getChangeFeedBatchSize(),
+                    TimeUnit.SECONDS.toMillis(configManager.getChangeFeedRetention())
+                );
+                changeFeed.start();
+            }
 
             // Initialize ender chest manager
-            enderChestManager = new EnderChestManager(database, configManager);
+            enderChestManager = new EnderChestManager(asyncDatabase, saveQueue, configManager, leases, changeFeed);
+
+            // Refresh cached chests other servers changed
+            if (changeFeed != null) {
+                long pollInterval = Math.max(1L, configManager.getChangeFeedPollInterval());
+                getServer().getScheduler().runTaskTimerAsynchronously(this, this::pollChanges, pollInterval, pollInterval);
+            }
+
+            // Chests that stay open are saved with each flush, not only when the last viewer closes
+            if (flushInterval > 0) {
+                getServer().getScheduler().runTaskTimer(this, enderChestManager::flushOpenChests, flushInterval, flushInterval);
+            }
 
             // Register listeners
             getServer().getPluginManager().registerEvents(
@@ -52,8 +142,15 @@ public class EChestPlusPlugin extends JavaPlugin {
                 new UpgradeItemListener(enderChestManager, configManager), this
             );
 
+            // Name index for admin commands, filled on join
+            NameResolver names = new NameResolver(asyncDatabase, configManager.getNameCacheSize());
+
+            getServer().getPluginManager().registerEvents(
+                new SessionListener(enderChestManager, names, configManager), this
+            );
+
             // Register admin command and tab completer
-            AdminCommand adminCommand = new AdminCommand(enderChestManager, configManager);
+            AdminCommand adminCommand = new AdminCommand(this, enderChestManager, configManager, names);
             getCommand("adminec").setExecutor(adminCommand);
             getCommand("adminec").setTabCompleter(new AdminCommandTabCompleter());
 
@@ -63,4 +160,168 @@ public class EChestPlusPlugin extends JavaPlugin {
             getServer().getPluginManager().disablePlugin(this);
         }
     }
+
+    // ============================================================
+    // Reload
+    // ============================================================
+
+    /**
+     * Reloads config.yml without disabling the plugin.
+     *
+     * The config is parsed off the server thread and swapped in as a whole.
+     * If the storage settings changed, the save queue is drained into the current
+     * provider before it is replaced. Open chests and cached chests stay in place.
+     * Queue, journal, lease, change feed and compression settings apply on the next restart.
+     *
+     * @return future completed off the server thread, true if the storage provider was replaced
+     */
+    public CompletableFuture<Boolean> reload() {
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            synchronized (reloadLock) {
+                try {
+                    result.complete(configManager.reload() && reloadStorage());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Drains the save queue and swaps in a provider built from the reloaded config.
+     * If the new provider fails to start, the current one is kept and the
+     * swap is tried again on the next reload.
+     */
+    private boolean reloadStorage() {
+
+        if (!saveQueue.drain(configManager.getShutdownTimeout(), TimeUnit.SECONDS)) {
+            getLogger().warning("Timed out while saving queued ender chests, "
+                    + saveQueue.size() + " chests will be written to the new storage.");
+        }
+
+        DatabaseProvider previous = database.swap(() -> DatabaseFactory.create(this, configManager, false));
+        previous.close();
+        configManager.storageApplied();
+        getLogger().info("Storage switched to " + configManager.getBaseType() + ".");
+
+        // A different backend does not know the connected players yet
+        String previousBackend = backend;
+        backend = backendId();
+        if (!backend.equals(previousBackend)) {
+            int copied = enderChestManager.saveCachedChests();
+            if (copied > 0) getLogger().info("Copying " + copied + " ender chests of online players to the new storage.");
+        }
+        return true;
+    }
+
+    /**
+     * Identifies the configured backend, two equal ids refer to the same stored data.
+     */
+    private String backendId() {
+        return configManager.getBaseType().toUpperCase() + " " + configManager.getDatabaseConnectionUri();
+    }
+
+    /**
+     * Reads the change feed off the server thread and refreshes the changed chests on it.
+     */
+    private void pollChanges() {
+        Map<UUID, Long> changed = changeFeed.poll();
+        if (!changed.isEmpty() && isEnabled()) {
+            getServer().getScheduler().runTask(this, () -> enderChestManager.refreshChanged(changed));
+        }
+    }
+
+    /**
+     * Builds the lease coordinator from the configuration.
+     * Leases a previous run under the same server name left behind still count
+     * as this server's until {@link ChestLeases#releaseAll()} is called.
+     */
+    private ChestLeases createLeases(String server) {
+        ChestLeases created = new ChestLeases(
+            database,
+            task -> getServer().getScheduler().runTaskAsynchronously(this, task),
+            getLogger(),
+            server,
+            TimeUnit.SECONDS.toMillis(configManager.getLeaseTtl()),
+            configManager.getLeaseWaitTimeout(),
+            configManager.getLeasePollInterval()
+        );
+        getLogger().info("Claiming ender chests as server " + server + ".");
+        return created;
+    }
+
+    /**
+     * Builds the compression stage from the configuration.
+     * Unknown algorithms fall back to no compression.
+     */
+    private BlobCompressor createCompressor() {
+        BlobCompressor.Algorithm algorithm;
+        try {
+            algorithm = BlobCompressor.Algorithm.valueOf(configManager.getCompressionAlgorithm().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            getLogger().warning("Unknown compression algorithm, storing chests uncompressed.");
+            algorithm = BlobCompressor.Algorithm.NONE;
+        }
+
+        // The dictionary folder is always passed so existing dictionary blobs stay readable
+        return new BlobCompressor(
+            algorithm,
+            configManager.getCompressionLevel(),
+            configManager.getCompressionThreshold(),
+            new File(getDataFolder(), "dictionaries"),
+            configManager.getDictionarySamples(),
+            getLogger()
+        );
+    }
+
+    @Override
+    public void onDisable() {
+        long timeout = configManager != null ? configManager.getShutdownTimeout() : 30L;
+
+        // One deadline for every stage, so the server waits at most shutdownTimeout in total
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+
+        // Chests still open would otherwise never see a close event
+        if (enderChestManager != null) {
+            int open = enderChestManager.saveOpenChests();
+            if (open > 0) getLogger().info("Saved " + open + " open ender chests.");
+        }
+
+        // Finish size changes and other provider calls still running in the background
+        if (asyncDatabase != null && !asyncDatabase.shutdown(remaining(deadline), TimeUnit.NANOSECONDS)) {
+            getLogger().warning("Timed out while waiting for storage calls.");
+        }
+
+        // Write out chests that are still waiting in the save queue
+        boolean saved = true;
+        if (saveQueue != null) {
+            int queued = saveQueue.size();
+            if (queued > 0) getLogger().info("Saving " + queued + " queued ender chests...");
+
+            saved = saveQueue.shutdown(remaining(deadline), TimeUnit.NANOSECONDS);
+            if (!saved) {
+                getLogger().severe("Timed out while saving queued ender chests, "
+                        + saveQueue.size() + " chests were not written.");
+            }
+        }
+
+        // Hand the chests to other servers, unsaved ones stay claimed until their leases expire
+        if (leases != null && saved) leases.releaseAll();
+
+        // Drop the journal if everything reached storage, keep it for replay otherwise
+        if (journal != null) journal.close();
+
+        // Flush buffered writes and release connections
+        if (database != null) database.close();
+    }
+
+    /**
+     * Returns the nanoseconds left until a deadline, never negative.
+     */
+    private static long remaining(long deadline) {
+        return Math.max(0L, deadline - System.nanoTime());
+    }
 }
@@ -1,7 +1,9 @@
 package net.nightzy.echestplus.commands;
 
+import net.nightzy.echestplus.EChestPlusPlugin;
 import net.nightzy.echestplus.config.ConfigManager;
 import net.nightzy.echestplus.manager.EnderChestManager;
+import net.nightzy.echestplus.manager.NameResolver;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -9,7 +11,8 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
-import java.util.UUID;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Handles administrative commands for EchestPlus.
@@ -21,16 +24,20 @@ public class AdminCommand implements CommandExecutor {
     // Fields
     // ============================================================
 
+    private final EChestPlusPlugin plugin;   // Plugin instance, runs reloads
     private final EnderChestManager manager; // Ender chest logic handler
     private final ConfigManager config;      // Configuration & messages provider
+    private final NameResolver names;        // Resolves target names without blocking
 
     // ============================================================
     // Constructor
     // ============================================================
 
-    public AdminCommand(EnderChestManager manager, ConfigManager config) {
+    public AdminCommand(EChestPlusPlugin plugin, EnderChestManager manager, ConfigManager config, NameResolver names) {
+        this.plugin = plugin;
         this.manager = manager;
         this.config = config;
+        this.names = names;
     }
 
     // ============================================================
@@ -72,6 +79,8 @@ public class AdminCommand implements CommandExecutor {
                 return handleSize(admin, args);
             case "reload":
                 return handleReload(admin);
+            case "stats":
+                return handleStats(admin);
             default:
                 sendHelp(admin);
                 return true;
@@ -128,20 +137,18 @@ public class AdminCommand implements CommandExecutor {
         }
 
         String playerName = args[1];
-        Player target = Bukkit.getPlayer(playerName);
-        UUID targetUUID;
-
-        // Resolve UUID (online or offline)
-        if (target != null) {
-            targetUUID = target.getUniqueId();
-        } else {
-            org.bukkit.OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(playerName);
-            targetUUID = offlinePlayer.getUniqueId();
-        }
 
-        // Open ender chest
-        manager.openForAdmin(admin, targetUUID);
-        admin.sendMessage(config.getAdminMessage("opened", "player", playerName));
+        // Resolve UUID (online or offline) without blocking, then open the ender chest
+        names.resolve(playerName).thenAccept(targetUUID -> {
+            if (!admin.isOnline()) return;
+            if (targetUUID == null) {
+                admin.sendMessage(config.getAdminMessage("playerNotFound", "player", playerName));
+                return;
+            }
+
+            manager.openForAdmin(admin, targetUUID);
+            admin.sendMessage(config.getAdminMessage("opened", "player", playerName));
+        });
 
         return true;
     }
@@ -172,43 +179,54 @@ public class AdminCommand implements CommandExecutor {
             return true;
         }
 
-        Player target = Bukkit.getPlayer(playerName);
-        UUID targetUUID;
-
-        // Resolve UUID (online or offline)
-        if (target != null) {
-            targetUUID = target.getUniqueId();
-        } else {
-            org.bukkit.OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(playerName);
-            targetUUID = offlinePlayer.getUniqueId();
-        }
-
         // Convert lines to inventory size
         int size = lines * 9;
-        manager.setSizeForUUID(targetUUID, size);
-        admin.sendMessage(config.getAdminMessage("sizeChanged", "player", playerName));
+
+        // Resolve UUID (online or offline) without blocking, then resize
+        names.resolve(playerName).thenAccept(targetUUID -> {
+            if (!admin.isOnline()) return;
+            if (targetUUID == null) {
+                admin.sendMessage(config.getAdminMessage("playerNotFound", "player", playerName));
+                return;
+            }
+
+            // Only report the change once storage accepted it
+            manager.setSizeForUUID(targetUUID, size).whenComplete((ignored, error) -> Bukkit.getScheduler().runTask(plugin, () -> {
+                if (!admin.isOnline()) return;
+                admin.sendMessage(config.getAdminMessage(error == null ? "sizeChanged" : "sizeFailed", "player", playerName));
+            }));
+        });
 
         return true;
     }
 
     /**
-     * Reloads the plugin by disabling and enabling it again.
+     * Reloads the configuration in the background, keeping open chests intact.
      */
     private boolean handleReload(Player admin) {
 
-        try {
-            Bukkit.getPluginManager().disablePlugin(
-                    Bukkit.getPluginManager().getPlugin("EchestPlus")
-            );
-            Bukkit.getPluginManager().enablePlugin(
-                    Bukkit.getPluginManager().getPlugin("EchestPlus")
-            );
-            admin.sendMessage(config.getAdminMessage("reloaded", null, null));
-        } catch (Exception e) {
-            admin.sendMessage(config.getAdminMessage("reloadError", "error", e.getMessage()));
-            e.printStackTrace();
-        }
+        plugin.reload().whenComplete((storageSwapped, error) -> Bukkit.getScheduler().runTask(plugin, () -> {
+            if (error == null) {
+                admin.sendMessage(config.getAdminMessage("reloaded", null, null));
+            } else {
+                admin.sendMessage(config.getAdminMessage("reloadError", "error", String.valueOf(error.getMessage())));
+                error.printStackTrace();
+            }
+        }));
+
+        return true;
+    }
+
+    /**
+     * Shows how many ender chest closes were written or skipped as unchanged.
+     */
+    private boolean handleStats(Player admin) {
+
+        Map<String, String> placeholders = new LinkedHashMap<>();
+        placeholders.put("written", String.valueOf(manager.getSavesWritten()));
+        placeholders.put("skipped", String.valueOf(manager.getSavesSkipped()));
 
+        admin.sendMessage(config.getAdminMessage("saveStats", placeholders));
         return true;
     }
 
@@ -225,5 +243,6 @@ public class AdminCommand implements CommandExecutor {
         admin.sendMessage(config.getAdminMessage("helpOpen", null, null));
         admin.sendMessage(config.getAdminMessage("helpSize", null, null));
         admin.sendMessage(config.getAdminMessage("helpReload", null, null));
+        admin.sendMessage(config.getAdminMessage("helpStats", null, null));
     }
 }
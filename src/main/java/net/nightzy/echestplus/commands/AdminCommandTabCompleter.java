@@ -21,7 +21,7 @@ public class AdminCommandTabCompleter implements TabCompleter {
     // ============================================================
 
     private static final List<String> SUBCOMMANDS =
-            Arrays.asList("getItem", "open", "size", "reload"); // Available admin subcommands
+            Arrays.asList("getItem", "open", "size", "reload", "stats"); // Available admin subcommands
 
     private static final List<String> LINES =
             Arrays.asList("3", "4", "5", "6"); // Valid line counts for the size command
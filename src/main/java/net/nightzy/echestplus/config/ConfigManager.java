@@ -2,19 +2,23 @@ package net.nightzy.echestplus.config;
 
 import dev.lone.itemsadder.api.CustomStack;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.minimessage.MiniMessage;
-import net.kyori.adventure.title.Title;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemFlag;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,38 +29,194 @@ import java.util.Map;
 public class ConfigManager {
 
     private final JavaPlugin plugin;
+    private final NamespacedKey upgraderKey;    // Tag stamped on issued upgrader items
+    private volatile ConfigSnapshot snapshot;   // Parsed hot-path values, swapped as a whole
+    private volatile ConfigSnapshot storage;    // Snapshot the running storage provider was built from
+    private volatile UpgraderMatcher upgraderMatcher; // Built on first use, ItemsAdder may load after us
 
     public ConfigManager(JavaPlugin plugin) {
         this.plugin = plugin;
+        this.upgraderKey = new NamespacedKey(plugin, "upgrader");
         this.plugin.saveDefaultConfig();
+        this.snapshot = ConfigSnapshot.load(plugin.getConfig());
+        this.storage = snapshot;
+    }
+
+    /**
+     * Re-reads config.yml and swaps in a freshly parsed snapshot.
+     * Safe to call off the server thread, the current snapshot is never modified.
+     * Storage settings are compared with those the running provider was built from,
+     * so a provider swap that failed is tried again on the next reload.
+     *
+     * @return true if the storage provider settings differ from the ones in use
+     * @throws IOException if the file cannot be read or parsed, the current snapshot stays in place
+     */
+    public boolean reload() throws IOException {
+        YamlConfiguration loaded = new YamlConfiguration();
+        try {
+            loaded.load(new File(plugin.getDataFolder(), "config.yml"));
+        } catch (InvalidConfigurationException e) {
+            throw new IOException("Invalid config.yml: " + e.getMessage(), e);
+        }
+
+        ConfigSnapshot next = ConfigSnapshot.load(loaded);
+        snapshot = next;
+        upgraderMatcher = null;
+        return !next.sameStorage(storage);
+    }
+
+    /**
+     * Records that the storage provider was rebuilt from the current snapshot.
+     * Called once the provider swap after {@link #reload()} succeeded.
+     */
+    public void storageApplied() {
+        storage = snapshot;
+    }
+
+    private ConfigurationSection config() {
+        return snapshot.getConfig();
     }
 
     public boolean isUseItemsAdder() {
-        return plugin.getConfig().getBoolean("useItemsAdder", false);
+        return snapshot.isUseItemsAdder();
     }
 
     public String getBaseType() {
-        return plugin.getConfig().getString("baseType", "YML");
+        return config().getString("baseType", "YML");
     }
 
     public String getDatabaseConnectionUri() {
-        return plugin.getConfig().getString("databaseConnectionUri");
+        return config().getString("databaseConnectionUri");
+    }
+
+    public int getSaveQueueCapacity() {
+        return config().getInt("storage.queueCapacity", 1024);
+    }
+
+    public int getStorageThreads() {
+        return config().getInt("storage.threads", 1);
+    }
+
+    public int getSaveBatchSize() {
+        return config().getInt("storage.batchSize", 64);
+    }
+
+    public long getFlushInterval() {
+        return config().getLong("storage.flushInterval", 20L);
+    }
+
+    public long getShutdownTimeout() {
+        return config().getLong("storage.shutdownTimeout", 30L);
+    }
+
+    public boolean isJournalEnabled() {
+        return config().getBoolean("storage.journal.enabled", true);
+    }
+
+    public long getJournalSyncInterval() {
+        return config().getLong("storage.journal.syncInterval", 100L);
+    }
+
+    public int getNameCacheSize() {
+        return config().getInt("storage.nameCacheSize", 1000);
+    }
+
+    public String getServerId() {
+        return config().getString("storage.serverId", "");
+    }
+
+    public boolean isLeaseEnabled() {
+        return config().getBoolean("storage.lease.enabled", false);
+    }
+
+
+    public long getLeaseTtl() {
+        return config().getLong("storage.lease.ttl", 30L);
+    }
+
+    public long getLeaseWaitTimeout() {
+        return config().getLong("storage.lease.waitTimeout", 5000L);
+    }
+
+    public long getLeasePollInterval() {
+        return config().getLong("storage.lease.pollInterval", 100L);
+    }
+
+    public boolean isChangeFeedEnabled() {
+        return config().getBoolean("storage.changeFeed.enabled", false);
+    }
+
+    public long getChangeFeedPollInterval() {
+        return config().getLong("storage.changeFeed.pollInterval", 20L);
+    }
+
+    public int getChangeFeedBatchSize() {
+        return config().getInt("storage.changeFeed.batchSize", 200);
+    }
+
+    public long getChangeFeedRetention() {
+        return config().getLong("storage.changeFeed.retention", 600L);
+    }
+
+    public int getSqlPoolSize() {
+        return config().getInt("storage.sql.poolSize", 4);
+    }
+
+    public long getSqlConnectionTimeout() {
+        return config().getLong("storage.sql.connectionTimeout", 10000L);
+    }
+
+    public long getSqlIdleTimeout() {
+        return config().getLong("storage.sql.idleTimeout", 600000L);
+    }
+
+    public long getSqlValidationInterval() {
+        return config().getLong("storage.sql.validationInterval", 5000L);
+    }
+
+    public int getSqlStatementCacheSize() {
+        return config().getInt("storage.sql.statementCacheSize", 16);
+    }
+
+    public int getYmlCacheSize() {
+        return config().getInt("storage.yml.cacheSize", 256);
+    }
+
+    public long getYmlFlushDelay() {
+        return config().getLong("storage.yml.flushDelay", 2000L);
+    }
+
+    public String getCompressionAlgorithm() {
+        return config().getString("storage.compression.algorithm", "DEFLATE");
+    }
+
+    public int getCompressionLevel() {
+        return config().getInt("storage.compression.level", 6);
+    }
+
+    public int getCompressionThreshold() {
+        return config().getInt("storage.compression.threshold", 512);
+    }
+
+    public int getDictionarySamples() {
+        return config().getBoolean("storage.compression.trainDictionary", false)
+                ? config().getInt("storage.compression.dictionarySamples", 200)
+                : 0;
     }
 
     public Component getEnderChestName() {
-        String raw = plugin.getConfig().getString("enderChestName", "<gradient:#086BFB:#4385FF>Your EnderChest</gradient>");
-        return MiniMessage.miniMessage().deserialize(raw);
+        return snapshot.getEnderChestName();
     }
 
     public int getEnderChestSize() {
-        return plugin.getConfig().getInt("enderChestSize", 27);
+        return snapshot.getEnderChestSize();
     }
 
     @SuppressWarnings("unchecked")
     public ItemStack getUpgraderItem() {
-        if (!plugin.getConfig().isList("upgraderItem")) return null;
+        if (!config().isList("upgraderItem")) return null;
 
-        List<?> list = plugin.getConfig().getList("upgraderItem");
+        List<?> list = config().getList("upgraderItem");
         if (list == null || list.isEmpty()) return null;
 
         Object first = list.get(0);
@@ -72,7 +232,7 @@ public class ConfigManager {
         ItemStack item;
 
         if (isUseItemsAdder()) {
-            CustomStack cs = CustomStack.getInstance("echestplus:upgrader");
+            CustomStack cs = CustomStack.getInstance(UpgraderMatcher.ITEMS_ADDER_ID);
             if (cs != null) {
                 item = cs.getItemStack();
             } else {
@@ -131,60 +291,43 @@ public class ConfigManager {
                 meta.setCustomModelData(modelData);
             }
 
+            meta.getPersistentDataContainer().set(upgraderKey, PersistentDataType.BYTE, (byte) 1);
             item.setItemMeta(meta);
         }
 
         return item;
     }
 
-    public void sendMessage(Player player, String sectionPath, Map<String, String> placeholders) {
-        String rawMessage = plugin.getConfig().getString(sectionPath + ".message", "Message not found");
-        String type = getMessageType(sectionPath);
-
-        if (placeholders != null) {
-            for (Map.Entry<String, String> e : placeholders.entrySet()) {
-                rawMessage = rawMessage.replace("<" + e.getKey() + ">", e.getValue());
-            }
+    /**
+     * Returns the matcher for upgrader items, building it from the config on first use.
+     */
+    public UpgraderMatcher getUpgraderMatcher() {
+        if (upgraderMatcher == null) {
+            upgraderMatcher = UpgraderMatcher.of(getUpgraderItem(), upgraderKey, isUseItemsAdder());
         }
+        return upgraderMatcher;
+    }
 
-        MiniMessage mm = MiniMessage.miniMessage();
-
-        switch (type.toUpperCase()) {
-            case "TITLE_SUBTITLE":
-                String[] split = rawMessage.split("\n", 2);
-                Component title = mm.deserialize(split[0]);
-                Component subtitle = (split.length > 1) ? mm.deserialize(split[1]) : Component.empty();
-                player.showTitle(Title.title(title, subtitle));
-                break;
-            case "ACTIONBAR":
-                player.sendActionBar(mm.deserialize(rawMessage));
-                break;
-            case "CHAT":
-            default:
-                player.sendMessage(mm.deserialize(rawMessage));
-                break;
-        }
+    public void sendMessage(Player player, String sectionPath, Map<String, String> placeholders) {
+        snapshot.message(sectionPath).send(player, placeholders);
     }
 
     public String getMessageType(String sectionPath) {
-        return plugin.getConfig().getString(sectionPath + ".messageType", "CHAT");
+        return snapshot.message(sectionPath).getType();
     }
 
     public Component getMessageAsComponent(String path, Map<String, String> placeholders) {
-        String raw = plugin.getConfig().getString(path, "Message not found");
-        if (placeholders != null) {
-            for (Map.Entry<String, String> e : placeholders.entrySet()) {
-                raw = raw.replace("<" + e.getKey() + ">", e.getValue());
-            }
-        }
-        return MiniMessage.miniMessage().deserialize(raw);
+        return snapshot.template(path).render(placeholders);
     }
 
     public Component getAdminMessage(String messagePath, String placeholder, String value) {
-        String raw = plugin.getConfig().getString("adminMessages." + messagePath, "Message not found");
-        if (placeholder != null && value != null) {
-            raw = raw.replace("<" + placeholder + ">", value);
-        }
-        return MiniMessage.miniMessage().deserialize(raw);
+        return snapshot.template("adminMessages." + messagePath).render(placeholder, value);
+    }
+
+    /**
+     * Gets an admin message with several placeholders replaced.
+     */
+    public Component getAdminMessage(String messagePath, Map<String, String> placeholders) {
+        return snapshot.template("adminMessages." + messagePath).render(placeholders);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,214 @@
+package net.nightzy.echestplus.config;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.title.Title;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable view of the values read on hot paths, built once per config load.
+ * Messages are parsed into templates here, so sending them never touches the
+ * config or parses MiniMessage again. A reload builds a new snapshot and swaps it in.
+ */
+final class ConfigSnapshot {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final ConfigurationSection config;            // Parsed config.yml, never modified
+    private final Map<String, Object> storageSettings;    // Settings the storage provider is built from
+    private final Component enderChestName;
+    private final int enderChestSize;
+    private final boolean useItemsAdder;
+    private final Map<String, MessageTemplate> templates; // Message texts by config path
+    private final Map<String, PlayerMessage> messages;    // Player messages by section
+
+    private ConfigSnapshot(ConfigurationSection config, Map<String, Object> storageSettings,
+                           Component enderChestName, int enderChestSize, boolean useItemsAdder,
+                           Map<String, MessageTemplate> templates, Map<String, PlayerMessage> messages) {
+        this.config = config;
+        this.storageSettings = storageSettings;
+        this.enderChestName = enderChestName;
+        this.enderChestSize = enderChestSize;
+        this.useItemsAdder = useItemsAdder;
+        this.templates = templates;
+        this.messages = messages;
+    }
+
+    /**
+     * Reads and parses everything the snapshot holds.
+     *
+     * @param config loaded plugin config
+     * @return new snapshot
+     */
+    static ConfigSnapshot load(ConfigurationSection config) {
+        Map<String, MessageTemplate> templates = new HashMap<>();
+        Map<String, PlayerMessage> messages = new HashMap<>();
+
+        // Player messages are sections with a "message" entry
+        for (String key : config.getKeys(false)) {
+            String raw = config.isConfigurationSection(key) ? config.getString(key + ".message") : null;
+            if (raw == null) continue;
+
+            templates.put(key + ".message", MessageTemplate.compile(raw));
+            messages.put(key, PlayerMessage.compile(config.getString(key + ".messageType", "CHAT"), raw));
+        }
+
+        ConfigurationSection admin = config.getConfigurationSection("adminMessages");
+        if (admin != null) {
+            for (String key : admin.getKeys(false)) {
+                String raw = admin.getString(key);
+                if (raw != null) templates.put("adminMessages." + key, MessageTemplate.compile(raw));
+            }
+        }
+
+        return new ConfigSnapshot(
+                config,
+                storageSettings(config),
+                MiniMessage.miniMessage().deserialize(config.getString("enderChestName", "<gradient:#086BFB:#4385FF>Your EnderChest</gradient>")),
+                config.getInt("enderChestSize", 27),
+                config.getBoolean("useItemsAdder", false),
+                Collections.unmodifiableMap(templates),
+                Collections.unmodifiableMap(messages)
+        );
+    }
+
+    /**
+     * Collects the settings DatabaseFactory builds the configured backend from.
+     * Settings of other backends are left out, so changing them never rebuilds
+     * a provider over files the running one still has open.
+     */
+    private static Map<String, Object> storageSettings(ConfigurationSection config) {
+        Map<String, Object> settings = new HashMap<>();
+        String baseType = config.getString("baseType", "YML").toUpperCase();
+        settings.put("baseType", baseType);
+
+        String section;
+        switch (baseType) {
+            case "SQLITE":
+            case "MYSQL":
+                settings.put("databaseConnectionUri", config.getString("databaseConnectionUri"));
+                section = "storage.sql";
+                break;
+            case "MONGODB":
+                settings.put("databaseConnectionUri", config.getString("databaseConnectionUri"));
+                section = null;
+                break;
+            case "SLOTFILE":
+                section = null;
+                break;
+            default:
+                // Unknown types are built as YML
+                section = "storage.yml";
+                break;
+        }
+
+        ConfigurationSection values = section != null ? config.getConfigurationSection(section) : null;
+        if (values != null) {
+            for (String key : values.getKeys(true)) {
+                if (!values.isConfigurationSection(key)) settings.put(section + "." + key, values.get(key));
+            }
+        }
+        return Collections.unmodifiableMap(settings);
+    }
+
+    // ============================================================
+    // Accessors
+    // ============================================================
+
+    ConfigurationSection getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns whether both snapshots would build the same storage provider.
+     */
+    boolean sameStorage(ConfigSnapshot other) {
+        return Objects.equals(storageSettings, other.storageSettings);
+    }
+
+    Component getEnderChestName() {
+        return enderChestName;
+    }
+
+    int getEnderChestSize() {
+        return enderChestSize;
+    }
+
+    boolean isUseItemsAdder() {
+        return useItemsAdder;
+    }
+
+    /**
+     * Returns the template at a config path, or the "Message not found" template.
+     */
+    MessageTemplate template(String path) {
+        return templates.getOrDefault(path, MessageTemplate.MISSING);
+    }
+
+    /**
+     * Returns the player message of a section, or a chat message saying it was not found.
+     */
+    PlayerMessage message(String section) {
+        return messages.getOrDefault(section, PlayerMessage.MISSING);
+    }
+
+    // ============================================================
+    // Player Messages
+    // ============================================================
+
+    /**
+     * Player message with its display type resolved and its text parsed.
+     */
+    static final class PlayerMessage {
+
+        private static final PlayerMessage MISSING = new PlayerMessage("CHAT", MessageTemplate.MISSING, null);
+
+        private final String type;              // CHAT, ACTIONBAR or TITLE_SUBTITLE
+        private final MessageTemplate text;     // Chat or action bar text, title for titles
+        private final MessageTemplate subtitle; // Subtitle for titles, null otherwise
+
+        private PlayerMessage(String type, MessageTemplate text, MessageTemplate subtitle) {
+            this.type = type;
+            this.text = text;
+            this.subtitle = subtitle;
+        }
+
+        private static PlayerMessage compile(String type, String raw) {
+            String upper = type.toUpperCase();
+            if (upper.equals("TITLE_SUBTITLE")) {
+                String[] split = raw.split("\n", 2);
+                return new PlayerMessage(upper, MessageTemplate.compile(split[0]),
+                        split.length > 1 ? MessageTemplate.compile(split[1]) : null);
+            }
+            return new PlayerMessage(upper, MessageTemplate.compile(raw), null);
+        }
+
+        String getType() {
+            return type;
+        }
+
+        void send(Player player, Map<String, String> placeholders) {
+            switch (type) {
+                case "TITLE_SUBTITLE":
+                    Component sub = subtitle != null ? subtitle.render(placeholders) : Component.empty();
+                    player.showTitle(Title.title(text.render(placeholders), sub));
+                    break;
+                case "ACTIONBAR":
+                    player.sendActionBar(text.render(placeholders));
+                    break;
+                case "CHAT":
+                default:
+                    player.sendMessage(text.render(placeholders));
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.nightzy.echestplus.config;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.Tag;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * MiniMessage text prepared at config load.
+ *
+ * Tags that MiniMessage does not know, e.g. {@code <player>}, are placeholders.
+ * Text without placeholders is parsed once. Text with placeholders is parsed
+ * with the values as unparsed placeholder tags, so they keep the styling around
+ * them, including gradients; recent results are cached per set of values.
+ * Placeholders without a value are rendered as written, like MiniMessage does
+ * for unknown tags.
+ */
+final class MessageTemplate {
+
+    // Tags in the raw text that may be placeholders
+    private static final Pattern TAG = Pattern.compile("<([A-Za-z0-9_]+)>");
+
+    // Rendered messages kept per template
+    private static final int CACHED = 64;
+
+    // Template for missing config entries
+    static final MessageTemplate MISSING = compile("Message not found");
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final String raw;          // MiniMessage text
+    private final Set<String> names;   // Placeholders in the text, empty if none
+    private final Component component; // Text rendered without values
+
+    /**
+     * Recently rendered messages by their placeholder values, guarded by itself.
+     */
+    private final Map<Map<String, String>, Component> rendered = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Map<String, String>, Component> eldest) {
+            return size() > CACHED;
+        }
+    };
+
+    private MessageTemplate(String raw, Set<String> names) {
+        this.raw = raw;
+        this.names = names;
+        this.component = parse(Collections.emptyMap());
+    }
+
+    /**
+     * Parses MiniMessage text into a template.
+     *
+     * @param raw MiniMessage text
+     * @return template
+     */
+    static MessageTemplate compile(String raw) {
+        Set<String> names = new LinkedHashSet<>();
+        Matcher matcher = TAG.matcher(raw);
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            if (!TagResolver.standard().has(name.toLowerCase(Locale.ROOT))) names.add(name);
+        }
+        return new MessageTemplate(raw, names);
+    }
+
+    // ============================================================
+    // Rendering
+    // ============================================================
+
+    /**
+     * Renders the template with the given placeholder values.
+     *
+     * @param values placeholder values by name, may be null
+     * @return rendered component
+     */
+    Component render(Map<String, String> values) {
+        if (names.isEmpty() || values == null || values.isEmpty()) return component;
+
+        // Only the values this text uses, so unrelated ones do not split the cache
+        Map<String, String> used = new HashMap<>();
+        for (String name : names) {
+            String value = values.get(name);
+            if (value != null) used.put(name, value);
+        }
+        if (used.isEmpty()) return component;
+
+        synchronized (rendered) {
+            Component cached = rendered.get(used);
+            if (cached != null) return cached;
+        }
+
+        Component result = parse(used);
+        synchronized (rendered) {
+            rendered.put(used, result);
+        }
+        return result;
+    }
+
+    /**
+     * Renders the template with a single placeholder value.
+     *
+     * @param name  placeholder name, may be null
+     * @param value placeholder value, may be null
+     * @return rendered component
+     */
+    Component render(String name, String value) {
+        if (names.isEmpty() || name == null || value == null) return component;
+        return render(Collections.singletonMap(name, value));
+    }
+
+    /**
+     * Parses the text with the given values inserted as plain text.
+     */
+    private Component parse(Map<String, String> values) {
+        if (names.isEmpty()) return MiniMessage.miniMessage().deserialize(raw);
+
+        List<TagResolver> resolvers = new ArrayList<>(names.size());
+        for (String name : names) {
+            String tag = name.toLowerCase(Locale.ROOT);
+            String value = values.get(name);
+            resolvers.add(value != null
+                    ? Placeholder.unparsed(tag, value)
+                    : TagResolver.resolver(tag, Tag.selfClosingInserting(Component.text("<" + name + ">"))));
+        }
+        return MiniMessage.miniMessage().deserialize(raw, TagResolver.resolver(resolvers));
+    }
+}
@@ -0,0 +1,96 @@
+package net.nightzy.echestplus.config;
+
+import dev.lone.itemsadder.api.CustomStack;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.util.List;
+
+/**
+ * Recognizes upgrader items, built once from the configured upgrader.
+ *
+ * Issued upgraders carry a persistent data tag, which is checked first.
+ * Upgraders handed out before the tag existed are still recognized by
+ * their lore, ItemsAdder id or custom model data.
+ * Items of another material are rejected without reading their meta.
+ */
+public final class UpgraderMatcher {
+
+    // ItemsAdder id of the upgrader item
+    static final String ITEMS_ADDER_ID = "echestplus:upgrader";
+
+    // Matcher used when no upgrader is configured
+    private static final UpgraderMatcher NONE = new UpgraderMatcher(null, null, null, -1, false);
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final NamespacedKey key;    // Tag stamped on issued upgraders
+    private final Material material;    // Material of the upgrader, null if none is configured
+    private final List<String> lore;    // Lore of legacy upgraders, null if the upgrader has none
+    private final int modelData;        // Custom model data of legacy upgraders, -1 if unset
+    private final boolean itemsAdder;   // Whether to ask ItemsAdder about untagged items
+
+    private UpgraderMatcher(NamespacedKey key, Material material, List<String> lore, int modelData, boolean itemsAdder) {
+        this.key = key;
+        this.material = material;
+        this.lore = lore;
+        this.modelData = modelData;
+        this.itemsAdder = itemsAdder;
+    }
+
+    /**
+     * Builds a matcher for the configured upgrader.
+     *
+     * @param template   upgrader item from the config, may be null
+     * @param key        tag stamped on issued upgraders
+     * @param itemsAdder whether ItemsAdder is enabled
+     * @return matcher, never null
+     */
+    static UpgraderMatcher of(ItemStack template, NamespacedKey key, boolean itemsAdder) {
+        if (template == null || !template.hasItemMeta()) return NONE;
+
+        ItemMeta meta = template.getItemMeta();
+        List<String> lore = meta.hasLore() ? meta.getLore() : null;
+        int modelData = meta.hasCustomModelData() ? meta.getCustomModelData() : -1;
+        return new UpgraderMatcher(key, template.getType(), lore, modelData, itemsAdder);
+    }
+
+    // ============================================================
+    // Matching
+    // ============================================================
+
+    /**
+     * Returns whether the item is an upgrader.
+     *
+     * @param item item to check, may be null
+     * @return true for tagged and legacy upgraders
+     */
+    public boolean matches(ItemStack item) {
+        if (item == null || item.getType() != material) return false;
+        if (item.getPersistentDataContainer().has(key, PersistentDataType.BYTE)) return true;
+        return matchesLegacy(item);
+    }
+
+    /**
+     * Recognizes upgraders issued before they were tagged.
+     */
+    private boolean matchesLegacy(ItemStack item) {
+        if (!item.hasItemMeta()) return false;
+        ItemMeta meta = item.getItemMeta();
+
+        if (lore != null && lore.equals(meta.getLore())) return true;
+
+        if (modelData != -1 && meta.hasCustomModelData() && meta.getCustomModelData() == modelData) return true;
+
+        if (itemsAdder) {
+            CustomStack cs = CustomStack.byItemStack(item);
+            return cs != null && cs.getNamespacedID().equals(ITEMS_ADDER_ID);
+        }
+        return false;
+    }
+}
@@ -1,15 +1,22 @@
 package net.nightzy.echestplus.listeners;
 
-import net.kyori.adventure.text.Component;
 import net.nightzy.echestplus.config.ConfigManager;
+import net.nightzy.echestplus.manager.EnderChestHolder;
 import net.nightzy.echestplus.manager.EnderChestManager;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
 
 /**
  * Handles ender chest interaction and inventory persistence.
@@ -54,26 +61,86 @@ public class EnderChestListener implements Listener {
     }
 
     /**
-     * Saves ender chest contents when inventory is closed.
+     * Saves ender chest contents when the last viewer closes the inventory.
+     * Own chests and admin views both carry an EnderChestHolder.
      */
     @EventHandler
     public void onInventoryClose(InventoryCloseEvent event) {
 
         // Only players are relevant
         if (!(event.getPlayer() instanceof Player)) return;
-        Player player = (Player) event.getPlayer();
-        Component actualTitle = event.getView().title();
 
-        // Check if admin is viewing another player's ender chest
-        if (manager.getAdminViewTarget(player.getUniqueId()) != null) {
-            manager.saveAdminInventory(player, event.getInventory());
+        EnderChestHolder holder = holderOf(event.getInventory());
+        if (holder == null) return;
+
+        manager.closeChest(holder);
+    }
+
+    // ============================================================
+    // Dirty Slot Tracking
+    // ============================================================
+
+    /**
+     * Records which ender chest slots a click changed.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryClick(InventoryClickEvent event) {
+
+        Inventory top = event.getView().getTopInventory();
+        EnderChestHolder holder = holderOf(top);
+        if (holder == null) return;
+
+        InventoryAction action = event.getAction();
+        if (action == InventoryAction.NOTHING) return;
+
+        // Collecting to the cursor can pull from any slot
+        if (action == InventoryAction.COLLECT_TO_CURSOR) {
+            holder.markAllDirty();
             return;
         }
 
-        // Check if this is the player's own ender chest
-        Component expectedTitle = config.getEnderChestName();
-        if (!actualTitle.equals(expectedTitle)) return;
+        if (event.getClickedInventory() == top) {
+            holder.markDirty(event.getSlot());
+        } else if (action == InventoryAction.MOVE_TO_OTHER_INVENTORY) {
+            // Shift-click from the player inventory fills whichever slots fit
+            holder.markAllDirty();
+        }
+    }
 
-        manager.saveEnderChest(player, event.getInventory());
+    /**
+     * Records which ender chest slots a drag changed.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryDrag(InventoryDragEvent event) {
+
+        Inventory top = event.getView().getTopInventory();
+        EnderChestHolder holder = holderOf(top);
+        if (holder == null) return;
+
+        // Raw slots below the top inventory size belong to the ender chest
+        for (int rawSlot : event.getRawSlots()) {
+            if (rawSlot < top.getSize()) holder.markDirty(rawSlot);
+        }
+    }
+
+    /**
+     * Marks ender chests changed by plugins or hoppers moving items.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryMoveItem(InventoryMoveItemEvent event) {
+        EnderChestHolder source = holderOf(event.getSource());
+        if (source != null) source.markAllDirty();
+
+        EnderChestHolder destination = holderOf(event.getDestination());
+        if (destination != null) destination.markAllDirty();
+    }
+
+    /**
+     * Returns the holder of a plugin ender chest, or null for any other inventory.
+     * Skips the block state snapshot Bukkit would otherwise take for container holders.
+     */
+    private static EnderChestHolder holderOf(Inventory inventory) {
+        InventoryHolder holder = inventory.getHolder(false);
+        return holder instanceof EnderChestHolder ? (EnderChestHolder) holder : null;
     }
 }
@@ -0,0 +1,109 @@
+package net.nightzy.echestplus.listeners;
+
+import net.nightzy.echestplus.config.ConfigManager;
+import net.nightzy.echestplus.manager.EnderChestManager;
+import net.nightzy.echestplus.manager.NameResolver;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads ender chests into the session cache on login
+ * and evicts them when the player leaves.
+ * Also records the name each player joins with.
+ */
+public class SessionListener implements Listener {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final EnderChestManager manager; // Ender chest logic handler
+    private final NameResolver names;        // Name index for admin commands
+    private final ConfigManager config;      // Configuration access
+
+    /**
+     * Players whose chest was preloaded and whose pre-login has not finished yet.
+     */
+    private final Set<UUID> preloaded = ConcurrentHashMap.newKeySet();
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    public SessionListener(EnderChestManager manager, NameResolver names, ConfigManager config) {
+        this.manager = manager;
+        this.names = names;
+        this.config = config;
+    }
+
+    // ============================================================
+    // Event Handlers
+    // ============================================================
+
+    /**
+     * Loads the chest on the async login thread, after most plugins
+     * had a chance to deny the login. If storage cannot be read the login is
+     * denied, an empty chest would overwrite the stored one on the next save.
+     * Runs at HIGHEST, as MONITOR handlers must not change the outcome.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        names.remember(event.getName(), event.getUniqueId());
+
+        try {
+            manager.preload(event.getUniqueId());
+            preloaded.add(event.getUniqueId());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER,
+                    config.getMessageAsComponent("loadFailed.message", Collections.emptyMap()));
+        }
+    }
+
+    /**
+     * Drops the preloaded chest if a MONITOR handler denied the pre-login after it was loaded.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLoginResult(AsyncPlayerPreLoginEvent event) {
+
+        if (!preloaded.remove(event.getUniqueId())) return;
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            manager.discard(event.getUniqueId());
+        }
+    }
+
+    /**
+     * Drops the preloaded chest if the login is denied later on.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLogin(PlayerLoginEvent event) {
+
+        if (event.getResult() == PlayerLoginEvent.Result.ALLOWED) return;
+        manager.unload(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Saves a chest that is still open and evicts the player's cache entry.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+
+        Player player = event.getPlayer();
+
+        // Closing fires InventoryCloseEvent, which queues the save
+        player.closeInventory();
+        manager.unload(player.getUniqueId());
+    }
+}
@@ -1,6 +1,5 @@
 package net.nightzy.echestplus.listeners;
 
-import dev.lone.itemsadder.api.CustomStack;
 import net.nightzy.echestplus.config.ConfigManager;
 import net.nightzy.echestplus.manager.EnderChestManager;
 import org.bukkit.entity.Player;
@@ -9,10 +8,8 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.ItemMeta;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class UpgradeItemListener implements Listener {
@@ -30,68 +27,49 @@ public class UpgradeItemListener implements Listener {
         // Obsługa tylko kliknięć prawym przyciskiem
         if (event.getAction() != Action.RIGHT_CLICK_AIR && event.getAction() != Action.RIGHT_CLICK_BLOCK) return;
 
+        // Matcher prebuilt from the config, other items fail on the material check
         ItemStack itemInHand = event.getItem();
-        if (itemInHand == null || !itemInHand.hasItemMeta()) return;
+        if (!config.getUpgraderMatcher().matches(itemInHand)) return;
 
-        // Pobieramy wzorcowy przedmiot z konfiguracji
-        ItemStack cfgItem = config.getUpgraderItem();
-        if (cfgItem == null || !cfgItem.hasItemMeta()) return;
-
-        boolean validItem = false;
-
-        // 1. Sprawdzenie lore (Wspólne dla obu wersji)
-        // Pobieramy lore z ręki i lore z configu
-        ItemMeta handMeta = itemInHand.getItemMeta();
-        ItemMeta cfgMeta = cfgItem.getItemMeta();
-
-        List<String> handLore = handMeta.getLore();
-        List<String> cfgLore = cfgMeta.getLore();
-
-        // Porównujemy Lore - jeśli się zgadzają, traktujemy jako ten sam przedmiot
-        if (handLore != null && handLore.equals(cfgLore)) {
-            validItem = true;
-        }
-
-        // 2. Dodatkowa weryfikacja ItemsAdder (jeśli włączone i lore nie wystarczyło)
-        if (!validItem && config.isUseItemsAdder()) {
-            CustomStack cs = CustomStack.byItemStack(itemInHand);
-            if (cs != null && cs.getNamespacedID().equals("echestplus:upgrader")) {
-                validItem = true;
-            }
-        }
-
-        // 3. Dodatkowa weryfikacja ModelData (jeśli lore nie wystarczyło)
-        if (!validItem) {
-            int cfgModel = cfgMeta.hasCustomModelData() ? cfgMeta.getCustomModelData() : -1;
-            int itemModel = handMeta.hasCustomModelData() ? handMeta.getCustomModelData() : -1;
-            if (cfgModel != -1 && cfgModel == itemModel) {
-                validItem = true;
-            }
-        }
-
-        if (!validItem) return;
+        // Cancel right away, the upgrade itself may wait for the chest to load
+        event.setCancelled(true);
 
-        // --- Logika ulepszania (bez zmian) ---
+        // --- Logika ulepszania ---
         Player player = event.getPlayer();
-        int current = manager.getSize(player);
-        
-        if (current >= EnderChestManager.MAX_SIZE) {
-            config.sendMessage(player, "fullEnderChest", null);
-            event.setCancelled(true);
-            return;
-        }
-
-        manager.setSize(player, current + 9);
+        manager.withChest(player, chest -> {
+            int current = chest.getSize();
 
-        Map<String, String> placeholders = new HashMap<>();
-        placeholders.put("player", player.getName());
-        placeholders.put("size", String.valueOf(current + 9));
-        placeholders.put("lines", String.valueOf((current + 9) / 9));
-
-        config.sendMessage(player, "upgraded", placeholders);
+            if (current >= EnderChestManager.MAX_SIZE) {
+                config.sendMessage(player, "fullEnderChest", null);
+                return;
+            }
 
-        // Zabranie przedmiotu
-        itemInHand.setAmount(itemInHand.getAmount() - 1);
-        event.setCancelled(true);
+            // The item may have been used up while the chest was loading
+            if (itemInHand.getAmount() <= 0) return;
+
+            // Take the item first, it is handed back if the upgrade does not go through
+            ItemStack refund = itemInHand.clone();
+            refund.setAmount(1);
+            itemInHand.setAmount(itemInHand.getAmount() - 1);
+
+            manager.addUpgrades(player.getUniqueId(), 1).whenComplete((size, error) -> {
+                if (error == null && size > current) {
+                    Map<String, String> placeholders = new HashMap<>();
+                    placeholders.put("player", player.getName());
+                    placeholders.put("size", String.valueOf(size));
+                    placeholders.put("lines", String.valueOf(size / 9));
+
+                    config.sendMessage(player, "upgraded", placeholders);
+                    return;
+                }
+
+                // Already at the maximum in storage, or failed to reach storage
+                if (error != null) error.printStackTrace();
+                if (!player.isOnline()) return;
+                player.getInventory().addItem(refund).values()
+                        .forEach(left -> player.getWorld().dropItem(player.getLocation(), left));
+                config.sendMessage(player, error != null ? "upgradeFailed" : "fullEnderChest", null);
+            });
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package net.nightzy.echestplus.manager;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * In-memory copy of an online player's ender chest.
+ * Loaded when the player logs in and kept until they quit.
+ */
+public class CachedChest {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private volatile int size;           // Normalized chest size in slots
+    private volatile ItemStack[] items;  // Latest known chest contents
+    private final long version;          // Stored version the chest was loaded from
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    public CachedChest(int size, ItemStack[] items, long version) {
+        this.size = size;
+        this.items = items;
+        this.version = version;
+    }
+
+    // ============================================================
+    // Accessors
+    // ============================================================
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a copy of the cached contents sized for an inventory of the given size.
+     */
+    public ItemStack[] getItems(int size) {
+
+        ItemStack[] current = items;
+        ItemStack[] copy = new ItemStack[size];
+        for (int i = 0; i < Math.min(size, current.length); i++) {
+            if (current[i] != null) copy[i] = current[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Replaces the cached contents with a detached snapshot.
+     */
+    public void setItems(ItemStack[] items) {
+        this.items = items;
+    }
+}
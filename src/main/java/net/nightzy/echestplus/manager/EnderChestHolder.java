@@ -0,0 +1,164 @@
+package net.nightzy.echestplus.manager;
+
+import net.nightzy.echestplus.util.ItemSerializer;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.UUID;
+
+/**
+ * Holder of every ender chest inventory opened by the plugin.
+ * Each owner has at most one live inventory, shared by every viewer.
+ *
+ * Identifies plugin chests with a plain instanceof check and carries their state:
+ * the owner, who opened it, the number of viewers, the stored version the contents
+ * were loaded from, and change tracking. Change tracking remembers the contents the inventory was
+ * filled with, a per-slot fingerprint of them and the slots touched by inventory events since.
+ */
+public class EnderChestHolder implements InventoryHolder {
+
+    /**
+     * Who the inventory was opened for.
+     */
+    public enum Role {
+        OWNER, // Opened by the owner
+        ADMIN  // Opened by an admin viewing another player's chest
+    }
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final UUID owner;         // Player whose chest is open
+    private final Role role;          // Who the inventory was created for
+    private final long version;       // Stored version the contents were loaded from
+    private Inventory inventory;      // Inventory this holder belongs to
+    private int viewers;              // Players currently viewing the inventory
+    private ItemStack[] opened;       // Detached contents at open time or the last save
+    private int[] fingerprint;        // Per-slot hash of the opened contents, 0 = empty
+    private final BitSet dirty;       // Slots touched by inventory events
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * @param owner   player whose chest is open
+     * @param role    who the inventory is created for
+     * @param version stored version the contents were loaded from
+     * @param opened  detached copy of the contents the inventory is filled with
+     */
+    EnderChestHolder(UUID owner, Role role, long version, ItemStack[] opened) {
+        this.owner = owner;
+        this.role = role;
+        this.version = version;
+        this.dirty = new BitSet(opened.length);
+        rebase(opened);
+    }
+
+    // ============================================================
+    // Accessors
+    // ============================================================
+
+    @Override
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    void setInventory(Inventory inventory) {
+        this.inventory = inventory;
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getViewers() {
+        return viewers;
+    }
+
+    // ============================================================
+    // Viewers
+    // ============================================================
+
+    void acquire() {
+        viewers++;
+    }
+
+    /**
+     * Counts a viewer out.
+     *
+     * @return viewers left
+     */
+    int release() {
+        if (viewers > 0) viewers--;
+        return viewers;
+    }
+
+    // ============================================================
+    // Tracking
+    // ============================================================
+
+    public void markDirty(int slot) {
+        if (slot >= 0 && slot < opened.length) dirty.set(slot);
+    }
+
+    public void markAllDirty() {
+        dirty.set(0, opened.length);
+    }
+
+    /**
+     * Returns the touched slots whose contents really differ from the opened contents.
+     * The fingerprint rules out most unchanged slots, equal hashes are confirmed with equals.
+     *
+     * @param current contents at close time
+     * @return changed slots, empty if the chest is unchanged
+     */
+    BitSet changedSlots(ItemStack[] current) {
+
+        BitSet changed = new BitSet(opened.length);
+        for (int i = dirty.nextSetBit(0); i >= 0 && i < opened.length; i = dirty.nextSetBit(i + 1)) {
+            ItemStack now = i < current.length ? current[i] : null;
+            if (hash(now) != fingerprint[i] || !same(opened[i], now)) changed.set(i);
+        }
+        return changed;
+    }
+
+    /**
+     * Makes saved contents the new baseline, so a later save only writes what changed since.
+     *
+     * @param saved detached copy of the saved contents
+     */
+    void rebase(ItemStack[] saved) {
+        this.opened = saved;
+        this.fingerprint = new int[saved.length];
+        this.dirty.clear();
+
+        for (int i = 0; i < saved.length; i++) {
+            fingerprint[i] = hash(saved[i]);
+        }
+    }
+
+    // ============================================================
+    // Fingerprint
+    // ============================================================
+
+    private static int hash(ItemStack item) {
+        return ItemSerializer.isEmpty(item) ? 0 : item.hashCode();
+    }
+
+    private static boolean same(ItemStack a, ItemStack b) {
+        if (ItemSerializer.isEmpty(a)) return ItemSerializer.isEmpty(b);
+        return a.equals(b);
+    }
+}
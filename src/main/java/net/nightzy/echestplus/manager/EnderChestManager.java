@@ -2,15 +2,26 @@ package net.nightzy.echestplus.manager;
 
 import net.kyori.adventure.text.Component;
 import net.nightzy.echestplus.config.ConfigManager;
-import net.nightzy.echestplus.storage.DatabaseProvider;
+import net.nightzy.echestplus.storage.AsyncDatabaseProvider;
+import net.nightzy.echestplus.storage.ChangeFeed;
+import net.nightzy.echestplus.storage.ChestLeases;
+import net.nightzy.echestplus.storage.ChestRecord;
+import net.nightzy.echestplus.storage.SaveQueue;
 import org.bukkit.Bukkit;
+import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Manages ender chest size, inventory access and persistence.
@@ -28,49 +39,174 @@ public class EnderChestManager {
     // Fields
     // ============================================================
 
-    private final DatabaseProvider database; // Storage provider
+    private final AsyncDatabaseProvider database; // Non-blocking storage provider
+    private final SaveQueue saveQueue;       // Write-behind queue for chest contents
     private final ConfigManager config;      // Configuration access
+    private final ChestLeases leases;        // Chest ownership between servers, null if disabled
+    private final ChangeFeed changeFeed;     // Changes announced to other servers, null if disabled
+    private final SessionCache cache = new SessionCache(); // Chests of connected players
 
     /**
-     * Maps admin UUID -> target player UUID
-     * Used to track admin inventory views.
+     * The one live inventory of each owner whose chest is open, shared by all viewers.
+     * Only touched from the server thread.
      */
-    private final Map<UUID, UUID> adminViewMap = new HashMap<>();
+    private final Map<UUID, EnderChestHolder> liveChests = new HashMap<>();
+
+    /**
+     * Newest version another server stored for chests that were open here, applied once they close.
+     * Only touched from the server thread.
+     */
+    private final Map<UUID, Long> deferredChanges = new HashMap<>();
+
+    private final AtomicLong savesWritten = new AtomicLong(); // Closes that queued a write
+    private final AtomicLong savesSkipped = new AtomicLong(); // Closes with unchanged contents
 
     // ============================================================
     // Constructor
     // ============================================================
 
-    public EnderChestManager(DatabaseProvider database, ConfigManager config) {
+    public EnderChestManager(AsyncDatabaseProvider database, SaveQueue saveQueue, ConfigManager config,
+                             ChestLeases leases, ChangeFeed changeFeed) {
         this.database = database;
+        this.saveQueue = saveQueue;
         this.config = config;
+        this.leases = leases;
+        this.changeFeed = changeFeed;
     }
 
     // ============================================================
-    // Size Management
+    // Session Cache
     // ============================================================
 
     /**
-     * Returns the normalized ender chest size for a player.
+     * Claims a player's chest and loads it into the session cache.
+     * Called from the async pre-login thread, so it may block on storage
+     * and on another server still saving the chest.
+     *
+     * @throws RuntimeException if the chest could not be claimed or loaded, a claim is dropped again
+     */
+    public void preload(UUID uuid) {
+        if (leases != null) leases.acquire(uuid);
+        try {
+            cache.put(uuid, loadChest(uuid).join());
+        } catch (RuntimeException e) {
+            if (leases != null) leases.releaseAfter(uuid, CompletableFuture.completedFuture(null));
+            throw e;
+        }
+    }
+
+    /**
+     * Evicts a player's chest from the session cache.
+     * Saves are queued on every close, so nothing is left to write here;
+     * the chest is released to other servers once the queued save is written.
+     */
+    public void unload(UUID uuid) {
+        cache.remove(uuid);
+        deferredChanges.remove(uuid);
+        if (leases != null) leases.releaseAfter(uuid, saveQueue.whenWritten(uuid));
+    }
+
+    /**
+     * Drops a chest preloaded for a login that was denied before the player joined.
+     * Safe on the async pre-login thread, as nothing was opened or deferred for the player.
      */
-    public int getSize(Player player) {
+    public void discard(UUID uuid) {
+        cache.remove(uuid);
+        if (leases != null) leases.releaseAfter(uuid, saveQueue.whenWritten(uuid));
+    }
+
+    /**
+     * Refreshes cached chests that another server changed.
+     *
+     * @param changes newest stored version per changed chest
+     */
+    public void refreshChanged(Map<UUID, Long> changes) {
+        changes.forEach(this::refresh);
+    }
 
-        int size = database.getSize(player.getUniqueId());
-        if (size <= 0) {
-            return config.getEnderChestSize();
+    /**
+     * Reloads a cached chest if storage holds a newer version.
+     * A chest open on this server is refreshed once it closed and its viewers'
+     * changes were written, as storage merges them slot by slot into the other
+     * server's change.
+     */
+    private void refresh(UUID uuid, long version) {
+
+        CachedChest cached = cache.get(uuid);
+        if (cached == null || cached.getVersion() >= version) return;
+
+        if (liveChests.containsKey(uuid)) {
+            deferredChanges.merge(uuid, version, Math::max);
+            return;
         }
 
-        return normalize(size);
+        // Invalidate right away, withChest reloads on a miss until the refresh arrives
+        cache.remove(uuid);
+        loadChest(uuid).thenAcceptAsync(loaded -> {
+            if (Bukkit.getPlayer(uuid) != null && cache.get(uuid) == null) cache.put(uuid, loaded);
+        }, database.mainThread()).exceptionally(this::logFailure);
     }
 
+    /**
+     * Runs an action with the cached chest of an online player on the server thread.
+     * On a cache miss (e.g. players that joined before the plugin was enabled)
+     * the chest is loaded asynchronously and the action runs once it arrives.
+     */
+    public void withChest(Player player, Consumer<CachedChest> action) {
+
+        UUID uuid = player.getUniqueId();
+        CachedChest cached = cache.get(uuid);
+        if (cached != null) {
+            action.accept(cached);
+            return;
+        }
+
+        loadChest(uuid).thenAcceptAsync(loaded -> {
+            if (!player.isOnline()) return;
+
+            // Another load may have filled the cache in the meantime
+            CachedChest chest = cache.get(uuid);
+            if (chest == null) {
+                chest = loaded;
+                cache.put(uuid, chest);
+            }
+            action.accept(chest);
+        }, database.mainThread()).exceptionally(this::logFailure);
+    }
+
+    /**
+     * Reads a chest from storage with a single record lookup.
+     * A snapshot still waiting in the save queue wins over the stored contents.
+     */
+    private CompletableFuture<CachedChest> loadChest(UUID uuid) {
+
+        return database.loadRecord(uuid).thenApply(record -> {
+            int size = record.getSize() <= 0 ? config.getEnderChestSize() : normalize(record.getSize());
+
+            ItemStack[] queued = saveQueue.peek(uuid);
+            ItemStack[] items = queued != null ? queued : record.getItems();
+
+            return new CachedChest(size, resize(items, size), record.getVersion());
+        });
+    }
+
+    /**
+     * Logs a failed asynchronous storage call.
+     */
+    private Void logFailure(Throwable error) {
+        error.printStackTrace();
+        return null;
+    }
+
+    // ============================================================
+    // Size Management
+    // ============================================================
+
     /**
      * Sets the ender chest size for a player.
      */
     public void setSize(Player player, int newSize) {
-
-        int size = normalize(newSize);
-        size = Math.min(size, MAX_SIZE);
-        database.setSize(player.getUniqueId(), size);
+        setSizeForUUID(player.getUniqueId(), newSize);
     }
 
     /**
@@ -89,108 +225,260 @@ public class EnderChestManager {
      */
     public void openEnderChest(Player player) {
 
-        int size = getSize(player);
-
-        Inventory inv = Bukkit.createInventory(
-                player,
-                size,
-                config.getEnderChestName()
-        );
-
-        ItemStack[] contents = database.loadItems(player.getUniqueId(), size);
-        inv.setContents(contents);
+        UUID uuid = player.getUniqueId();
+        EnderChestHolder live = liveChests.get(uuid);
+        if (live != null) {
+            view(player, live);
+            return;
+        }
 
-        player.openInventory(inv);
+        withChest(player, chest -> view(player, liveChest(uuid, EnderChestHolder.Role.OWNER, chest)));
     }
 
     /**
-     * Saves the contents of the player's ender chest.
+     * Closes a viewer's ender chest inventory.
+     * The chest is saved once its last viewer is gone.
      */
-    public void saveEnderChest(Player player, Inventory inv) {
-        database.saveItems(player.getUniqueId(), inv.getContents());
+    public void closeChest(EnderChestHolder holder) {
+
+        if (holder.release() > 0) return;
+        liveChests.remove(holder.getOwner(), holder);
+
+        if (saveContents(holder)) {
+            savesWritten.incrementAndGet();
+        } else {
+            savesSkipped.incrementAndGet();
+        }
+
+        // Apply what another server changed while the chest was open, on top of the saved changes
+        UUID owner = holder.getOwner();
+        Long deferred = deferredChanges.remove(owner);
+        if (deferred != null) {
+            saveQueue.whenWritten(owner).thenRunAsync(() -> refresh(owner, deferred), database.mainThread())
+                    .exceptionally(this::logFailure);
+        }
     }
 
     /**
      * Opens another player's ender chest for an admin.
+     * If the chest is already open, the admin joins the live inventory.
      */
     public void openForAdmin(Player admin, UUID targetUUID) {
 
-        int size = getSize(targetUUID);
+        EnderChestHolder live = liveChests.get(targetUUID);
+        if (live != null) {
+            view(admin, live);
+            return;
+        }
+
+        CachedChest cached = cache.get(targetUUID);
+        if (cached != null) {
+            view(admin, liveChest(targetUUID, EnderChestHolder.Role.ADMIN, cached));
+            return;
+        }
+
+        // Offline target: load in the background and open once it arrives
+        loadChest(targetUUID).thenAcceptAsync(chest -> {
+            if (admin.isOnline()) view(admin, liveChest(targetUUID, EnderChestHolder.Role.ADMIN, chest));
+        }, database.mainThread()).exceptionally(this::logFailure);
+    }
+
+    /**
+     * Returns the live inventory of an owner, creating it from a loaded chest if nobody has it open.
+     * The title follows the role of whoever opens the chest first.
+     */
+    private EnderChestHolder liveChest(UUID owner, EnderChestHolder.Role role, CachedChest chest) {
+
+        // Another viewer may have opened it while the chest was loading
+        EnderChestHolder live = liveChests.get(owner);
+        if (live != null) return live;
+
+        int size = chest.getSize();
+        ItemStack[] contents = chest.getItems(size);
+        EnderChestHolder holder = new EnderChestHolder(owner, role, chest.getVersion(), contents);
 
         Inventory inv = Bukkit.createInventory(
-                admin,
+                holder,
                 size,
-                Component.text("EnderChest: " + targetUUID)
+                role == EnderChestHolder.Role.OWNER ? config.getEnderChestName() : Component.text("EnderChest: " + owner)
         );
-
-        ItemStack[] contents = database.loadItems(targetUUID, size);
         inv.setContents(contents);
+        holder.setInventory(inv);
+
+        liveChests.put(owner, holder);
+        return holder;
+    }
+
+    /**
+     * Opens a live inventory for a viewer and counts the viewer.
+     * An inventory nobody managed to open is dropped again.
+     */
+    private void view(Player viewer, EnderChestHolder holder) {
 
-        adminViewMap.put(admin.getUniqueId(), targetUUID);
-        admin.openInventory(inv);
+        if (viewer.openInventory(holder.getInventory()) != null) {
+            holder.acquire();
+        } else if (holder.getViewers() == 0) {
+            liveChests.remove(holder.getOwner(), holder);
+        }
     }
 
     /**
      * Sets the ender chest size for a player UUID.
+     *
+     * @return future completed once the size is stored, exceptionally if the write failed
      */
-    public void setSizeForUUID(UUID uuid, int newSize) {
+    public CompletableFuture<Void> setSizeForUUID(UUID uuid, int newSize) {
 
         int size = normalize(newSize);
         size = Math.min(size, MAX_SIZE);
-        database.setSize(uuid, size);
+
+        // Memory first so the next open sees the new size, storage in the background
+        CachedChest cached = cache.get(uuid);
+        if (cached != null) cached.setSize(size);
+
+        CompletableFuture<Void> written = database.setSize(uuid, size);
+        written.exceptionally(this::logFailure);
+        if (cached == null && changeFeed != null) changeFeed.publish(uuid, written);
+        return written;
     }
 
     /**
-     * Returns normalized size for a UUID.
+     * Copies contents into a fresh array of the given size.
      */
-    private int getSize(UUID uuid) {
+    private ItemStack[] resize(ItemStack[] contents, int size) {
 
-        int size = database.getSize(uuid);
-        if (size <= 0) {
-            return config.getEnderChestSize();
+        ItemStack[] items = new ItemStack[size];
+        for (int i = 0; i < Math.min(size, contents.length); i++) {
+            if (contents[i] != null) items[i] = contents[i].clone();
         }
+        return items;
+    }
+
+    /**
+     * Snapshots inventory contents into the session cache and queues the changed slots.
+     * Chests whose contents match their baseline fingerprint are neither
+     * snapshotted nor queued. Saved contents become the new baseline.
+     *
+     * @return true if a write was queued
+     */
+    private boolean saveContents(EnderChestHolder holder) {
+
+        ItemStack[] contents = holder.getInventory().getContents();
+
+        BitSet changed = holder.changedSlots(contents);
+        if (changed.isEmpty()) return false;
 
-        return normalize(size);
+        ItemStack[] snapshot = SaveQueue.snapshot(contents);
+        holder.rebase(snapshot);
+
+        CachedChest cached = cache.get(holder.getOwner());
+        if (cached != null) cached.setItems(snapshot);
+
+        saveQueue.submit(holder.getOwner(), snapshot, changed);
+
+        // The owner is not connected here, another server may have the chest cached
+        if (cached == null && changeFeed != null) {
+            changeFeed.publish(holder.getOwner(), saveQueue.whenWritten(holder.getOwner()));
+        }
+        return true;
     }
 
     /**
-     * Saves admin-viewed inventory and clears admin view state.
+     * Queues the changes of every live ender chest without closing it,
+     * so chests that stay open for long are not only saved on close.
+     * Called by the flush timer on the server thread.
      */
-    public void saveAdminInventory(Player admin, Inventory inv) {
+    public void flushOpenChests() {
+        for (EnderChestHolder holder : liveChests.values()) {
+            saveContents(holder);
+        }
+    }
 
-        UUID targetUUID = adminViewMap.get(admin.getUniqueId());
-        if (targetUUID != null) {
-            database.saveItems(targetUUID, inv.getContents());
-            adminViewMap.remove(admin.getUniqueId());
+    /**
+     * Saves every ender chest that is still open and closes it for its viewers.
+     * Used on shutdown, when close events no longer reach the plugin's listeners.
+     *
+     * @return number of chests saved
+     */
+    public int saveOpenChests() {
+
+        int open = liveChests.size();
+        for (EnderChestHolder holder : new ArrayList<>(liveChests.values())) {
+            saveContents(holder);
+
+            for (HumanEntity viewer : new ArrayList<>(holder.getInventory().getViewers())) {
+                viewer.closeInventory();
+            }
         }
+
+        liveChests.clear();
+        return open;
     }
 
     /**
-     * Returns the UUID of the player currently viewed by the admin.
+     * Queues the cached chest and size of every connected player for a full write.
+     * Used after switching to another storage backend, which does not know them yet.
+     * Safe to call off the server thread.
+     *
+     * @return number of chests queued
      */
-    public UUID getAdminViewTarget(UUID adminUUID) {
-        return adminViewMap.get(adminUUID);
+    public int saveCachedChests() {
+
+        AtomicLong queued = new AtomicLong();
+        cache.forEach((uuid, chest) -> {
+            int size = chest.getSize();
+            database.setSize(uuid, size).exceptionally(this::logFailure);
+            saveQueue.submit(uuid, chest.getItems(size));
+            queued.incrementAndGet();
+        });
+        return (int) queued.get();
     }
 
     // ============================================================
-    // Upgrade Utilities
+    // Statistics
     // ============================================================
 
     /**
-     * Adds ender chest upgrades to a player.
-     *
-     * @return true if size changed, false if already at max
+     * Returns the number of closes that queued a write.
      */
-    public boolean addUpgrade(Player player, int count) {
+    public long getSavesWritten() {
+        return savesWritten.get();
+    }
 
-        int current = getSize(player);
-        int newSize = Math.min(current + (count * 9), MAX_SIZE);
+    /**
+     * Returns the number of closes skipped because nothing changed.
+     */
+    public long getSavesSkipped() {
+        return savesSkipped.get();
+    }
 
-        if (newSize == current) {
-            return false;
-        }
+    // ============================================================
+    // Upgrade Utilities
+    // ============================================================
 
-        setSize(player, newSize);
-        return true;
+    /**
+     * Adds ender chest upgrades to a player, capped at the maximum size.
+     *
+     * The stored upgrade count is changed with a compare-and-set on the chest version,
+     * so upgrades applied at the same time, e.g. on another server, are not lost.
+     *
+     * @param uuid  unique identifier of the player
+     * @param count upgrades to add
+     * @return future completed on the server thread with the new size,
+     *         or failed with a StorageException if the change was rejected
+     */
+    public CompletableFuture<Integer> addUpgrades(UUID uuid, int count) {
+
+        int max = ChestRecord.upgradesOf(MAX_SIZE);
+        return database.updateUpgrades(uuid, upgrades -> Math.min(upgrades + count, max))
+                .handleAsync((upgrades, error) -> {
+                    // Failures too are completed on the server thread
+                    if (error != null) throw new CompletionException(error);
+
+                    int size = ChestRecord.sizeOf(upgrades);
+                    CachedChest cached = cache.get(uuid);
+                    if (cached != null) cached.setSize(size);
+                    return size;
+                }, database.mainThread());
     }
 }
@@ -0,0 +1,118 @@
+package net.nightzy.echestplus.manager;
+
+import net.nightzy.echestplus.storage.AsyncDatabaseProvider;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resolves player names to UUIDs without blocking the server thread.
+ *
+ * Names are recorded in the plugin's storage whenever a player joins.
+ * Lookups check online players, then a bounded LRU of recently seen names,
+ * then storage off the server thread. Names the plugin never saw fall back
+ * to the server's own profile cache, which is read without a web request.
+ */
+public class NameResolver {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final AsyncDatabaseProvider database; // Storage holding the name index
+    private final int capacity;                   // Maximum number of names kept in memory
+
+    /**
+     * Recently seen names in lower case, in access order. Guarded by this.
+     */
+    private final LinkedHashMap<String, UUID> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    public NameResolver(AsyncDatabaseProvider database, int capacity) {
+        this.database = database;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // ============================================================
+    // Recording
+    // ============================================================
+
+    /**
+     * Records the name a player joined with.
+     * Storage is only written if the name is new to the cache or belongs to another player now.
+     *
+     * @param name player name
+     * @param uuid unique identifier of the player
+     */
+    public void remember(String name, UUID uuid) {
+
+        String key = name.toLowerCase(Locale.ROOT);
+        if (uuid.equals(put(key, uuid))) return;
+
+        database.saveName(key, uuid).exceptionally(error -> {
+            error.printStackTrace();
+            return null;
+        });
+    }
+
+    // ============================================================
+    // Resolution
+    // ============================================================
+
+    /**
+     * Resolves a player name.
+     *
+     * @param name player name, any case
+     * @return future completed on the server thread with the UUID, or null if the name is unknown
+     */
+    public CompletableFuture<UUID> resolve(String name) {
+
+        Player online = Bukkit.getPlayerExact(name);
+        if (online != null) return CompletableFuture.completedFuture(online.getUniqueId());
+
+        String key = name.toLowerCase(Locale.ROOT);
+        UUID cached;
+        synchronized (this) {
+            cached = recent.get(key);
+        }
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        return database.lookupName(key).handleAsync((stored, error) -> {
+            if (error != null) error.printStackTrace();
+
+            UUID uuid = stored;
+            if (uuid == null) {
+                OfflinePlayer known = Bukkit.getOfflinePlayerIfCached(name);
+                if (known != null) uuid = known.getUniqueId();
+            }
+
+            if (uuid != null) put(key, uuid);
+            return uuid;
+        }, database.mainThread());
+    }
+
+    /**
+     * Caches a name, evicting the least recently used names over capacity.
+     *
+     * @return UUID previously cached for the name, or null
+     */
+    private synchronized UUID put(String key, UUID uuid) {
+
+        UUID previous = recent.put(key, uuid);
+        Iterator<String> it = recent.keySet().iterator();
+        while (recent.size() > capacity && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        return previous;
+    }
+}
@@ -0,0 +1,60 @@
+package net.nightzy.echestplus.manager;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Holds the ender chests of players that are currently connected.
+ * Entries are filled on the async pre-login thread and read on the server thread.
+ */
+public class SessionCache {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final Map<UUID, CachedChest> chests = new ConcurrentHashMap<>(); // Player UUID -> cached chest
+
+    // ============================================================
+    // Cache Access
+    // ============================================================
+
+    /**
+     * Returns the cached chest of a player, or null if it is not loaded.
+     */
+    public CachedChest get(UUID uuid) {
+        return chests.get(uuid);
+    }
+
+    /**
+     * Stores a loaded chest for a player.
+     */
+    public void put(UUID uuid, CachedChest chest) {
+        chests.put(uuid, chest);
+    }
+
+    /**
+     * Evicts a player's chest from the cache.
+     *
+     * @return the evicted chest, or null if it was not cached
+     */
+    public CachedChest remove(UUID uuid) {
+        return chests.remove(uuid);
+    }
+
+    /**
+     * Runs an action for every cached chest.
+     */
+    public void forEach(BiConsumer<UUID, CachedChest> action) {
+        chests.forEach(action);
+    }
+
+    /**
+     * Returns the number of cached chests.
+     */
+    public int size() {
+        return chests.size();
+    }
+}
@@ -0,0 +1,190 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Adapts a blocking DatabaseProvider to the AsyncDatabaseProvider contract
+ * by running every call on a dedicated storage executor.
+ * Calls for the same player run in submission order.
+ */
+public class AsyncDatabaseAdapter implements AsyncDatabaseProvider {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final DatabaseProvider database; // Wrapped blocking provider
+    private final ExecutorService executor;  // Storage threads running provider calls
+    private final Executor mainThread;       // Dispatches callbacks to the server thread
+
+    /**
+     * Last submitted call per player.
+     * New calls for the player are chained behind it to keep them ordered.
+     */
+    private final Map<UUID, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * Creates the adapter and its storage executor.
+     *
+     * @param plugin   plugin used to schedule callbacks on the server thread
+     * @param database blocking provider to wrap
+     * @param threads  number of storage threads
+     */
+    public AsyncDatabaseAdapter(Plugin plugin, DatabaseProvider database, int threads) {
+        this.database = database;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "EChestPlus-Async-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Tasks can no longer be scheduled once the plugin is disabled, so late callbacks are dropped
+        this.mainThread = task -> {
+            if (plugin.isEnabled()) Bukkit.getScheduler().runTask(plugin, task);
+        };
+    }
+
+    // ============================================================
+    // Provider Calls
+    // ============================================================
+
+    @Override
+    public CompletableFuture<Integer> getUpgrades(UUID uuid) {
+        return ordered(uuid, () -> database.getUpgrades(uuid));
+    }
+
+    @Override
+    public CompletableFuture<Void> setUpgrades(UUID uuid, int upgrades) {
+        return ordered(uuid, () -> {
+            database.setUpgrades(uuid, upgrades);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> getSize(UUID uuid) {
+        return ordered(uuid, () -> database.getSize(uuid));
+    }
+
+    @Override
+    public CompletableFuture<Void> setSize(UUID uuid, int size) {
+        return ordered(uuid, () -> {
+            database.setSize(uuid, size);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveItems(UUID uuid, ItemStack[] items) {
+        return ordered(uuid, () -> {
+            database.saveItems(uuid, items);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveSlots(UUID uuid, ItemStack[] items, BitSet slots) {
+        return ordered(uuid, () -> {
+            database.saveSlots(uuid, items, slots);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<ItemStack[]> loadItems(UUID uuid, int size) {
+        return ordered(uuid, () -> database.loadItems(uuid, size));
+    }
+
+    @Override
+    public CompletableFuture<Integer> updateUpgrades(UUID uuid, IntUnaryOperator change) {
+        return ordered(uuid, () -> database.updateUpgrades(uuid, change));
+    }
+
+    @Override
+    public CompletableFuture<ChestRecord> loadRecord(UUID uuid) {
+        return ordered(uuid, () -> database.loadRecord(uuid));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveName(String name, UUID uuid) {
+        return CompletableFuture.runAsync(() -> database.saveName(name, uuid), executor);
+    }
+
+    @Override
+    public CompletableFuture<UUID> lookupName(String name) {
+        return CompletableFuture.supplyAsync(() -> database.lookupName(name), executor);
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, ChestRecord>> loadRecords(Collection<UUID> uuids) {
+        return CompletableFuture.supplyAsync(() -> database.loadRecords(uuids), executor);
+    }
+
+    @Override
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    /**
+     * Runs a provider call after all earlier calls for the same player.
+     */
+    private <T> CompletableFuture<T> ordered(UUID uuid, Supplier<T> call) {
+
+        AtomicReference<CompletableFuture<T>> submitted = new AtomicReference<>();
+        tails.compute(uuid, (key, previous) -> {
+            CompletableFuture<T> next = previous == null
+                    ? CompletableFuture.supplyAsync(call, executor)
+                    : previous.handleAsync((result, error) -> call.get(), executor);
+            submitted.set(next);
+            return next;
+        });
+
+        CompletableFuture<T> future = submitted.get();
+        future.whenComplete((result, error) -> tails.remove(uuid, future));
+        return future;
+    }
+
+    // ============================================================
+    // Shutdown
+    // ============================================================
+
+    /**
+     * Stops accepting calls and waits for running ones to finish.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return true if all calls finished before the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
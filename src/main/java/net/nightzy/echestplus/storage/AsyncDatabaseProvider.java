@@ -0,0 +1,131 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Non-blocking counterpart of DatabaseProvider.
+ *
+ * Every future is completed on a storage thread. Callbacks that touch the
+ * Bukkit API must be chained with {@link #mainThread()}, e.g.
+ * {@code loadRecord(uuid).thenAcceptAsync(record -> ..., mainThread())}.
+ */
+public interface AsyncDatabaseProvider {
+
+    /**
+     * Retrieves the number of upgrades a player has purchased.
+     *
+     * @param uuid unique identifier of the player
+     * @return future completed with the number of upgrades
+     */
+    CompletableFuture<Integer> getUpgrades(UUID uuid);
+
+    /**
+     * Sets the number of upgrades a player has.
+     *
+     * @param uuid unique identifier of the player
+     * @param upgrades new upgrade count
+     * @return future completed once the value is stored
+     */
+    CompletableFuture<Void> setUpgrades(UUID uuid, int upgrades);
+
+    /**
+     * Gets the saved ender chest size for a player.
+     *
+     * @param uuid unique identifier of the player
+     * @return future completed with the ender chest size
+     */
+    CompletableFuture<Integer> getSize(UUID uuid);
+
+    /**
+     * Updates the saved ender chest size for a player.
+     *
+     * @param uuid unique identifier of the player
+     * @param size new ender chest size
+     * @return future completed once the value is stored
+     */
+    CompletableFuture<Void> setSize(UUID uuid, int size);
+
+    /**
+     * Persists the items of a player's ender chest.
+     *
+     * @param uuid unique identifier of the player
+     * @param items snapshot of the chest contents, must not be modified afterwards
+     * @return future completed once the items are stored
+     */
+    CompletableFuture<Void> saveItems(UUID uuid, ItemStack[] items);
+
+    /**
+     * Persists only the listed slots of a player's ender chest.
+     *
+     * @param uuid unique identifier of the player
+     * @param items snapshot of the chest contents, must not be modified afterwards
+     * @param slots indexes of the slots that changed
+     * @return future completed once the slots are stored
+     */
+    CompletableFuture<Void> saveSlots(UUID uuid, ItemStack[] items, BitSet slots);
+
+    /**
+     * Loads the items of a player's ender chest.
+     *
+     * @param uuid unique identifier of the player
+     * @param size expected size of the inventory
+     * @return future completed with the player's items
+     */
+    CompletableFuture<ItemStack[]> loadItems(UUID uuid, int size);
+
+    /**
+     * Changes the number of upgrades with a compare-and-set on the stored version.
+     *
+     * @param uuid   unique identifier of the player
+     * @param change computes the new upgrade count from the stored one, may run several times
+     * @return future completed with the stored upgrade count after the change,
+     *         or failed with a StorageException if the change was rejected
+     */
+    CompletableFuture<Integer> updateUpgrades(UUID uuid, IntUnaryOperator change);
+
+    /**
+     * Loads upgrades, contents and version of a player's ender chest at once.
+     *
+     * @param uuid unique identifier of the player
+     * @return future completed with the stored or an empty record
+     */
+    CompletableFuture<ChestRecord> loadRecord(UUID uuid);
+
+    /**
+     * Records the current name of a player.
+     *
+     * @param name player name in lower case
+     * @param uuid unique identifier of the player
+     * @return future completed once the name is stored
+     */
+    CompletableFuture<Void> saveName(String name, UUID uuid);
+
+    /**
+     * Looks up the player that last joined with a name.
+     *
+     * @param name player name in lower case
+     * @return future completed with the unique identifier, or null if the name is unknown
+     */
+    CompletableFuture<UUID> lookupName(String name);
+
+    /**
+     * Loads the records of several players.
+     *
+     * @param uuids unique identifiers of the players
+     * @return future completed with the records keyed by player
+     */
+    CompletableFuture<Map<UUID, ChestRecord>> loadRecords(Collection<UUID> uuids);
+
+    /**
+     * Returns an executor that runs callbacks on the server thread.
+     */
+    Executor mainThread();
+}
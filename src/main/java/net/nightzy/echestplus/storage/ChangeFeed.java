@@ -0,0 +1,169 @@
+package net.nightzy.echestplus.storage;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Change feed for servers sharing one database, kept in the database itself.
+ *
+ * When a server changes a chest it does not hold for a connected player,
+ * e.g. an admin editing the chest of a player on another server, it appends
+ * the chest and its stored version to the feed. Every server polls the feed
+ * in batches and refreshes only the cached chests named in new entries.
+ * Entries are pruned after the retention time.
+ *
+ * Ids are assigned when an entry is inserted but become visible when its
+ * transaction commits, so an entry may appear behind one already read.
+ * Every poll therefore reads a window of entries before the cursor again
+ * and drops changes it already reported, by chest and version.
+ */
+public class ChangeFeed {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final long PRUNE_INTERVAL = TimeUnit.MINUTES.toMillis(1); // Milliseconds between prunes
+    private static final int LOOKBACK = 256;  // Entries before the cursor read again for late commits
+    private static final int REPORTED = 4096; // Reported changes remembered for deduplication
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final DatabaseProvider database; // Provider storing the feed
+    private final Executor executor;         // Runs publishes off the server thread
+    private final Logger logger;
+    private final String server;             // Name of this server in the feed
+    private final int batchSize;             // Entries read at once
+    private final long retention;            // Milliseconds entries are kept
+
+    private long cursor;    // Highest id read, guarded by this
+    private long nextPrune; // Time of the next prune, guarded by this
+
+    /**
+     * Newest version reported per chest, oldest reports evicted first. Guarded by this.
+     */
+    private final LinkedHashMap<UUID, Long> reported = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+            return size() > REPORTED;
+        }
+    };
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * @param database  provider storing the feed
+     * @param executor  runs publishes off the server thread
+     * @param logger    logger for feed failures
+     * @param server    name of this server, unique among servers sharing the database
+     * @param batchSize maximum number of entries read at once
+     * @param retention milliseconds entries are kept
+     */
+    public ChangeFeed(DatabaseProvider database, Executor executor, Logger logger, String server,
+                      int batchSize, long retention) {
+        this.database = database;
+        this.executor = executor;
+        this.logger = logger;
+        this.server = server;
+        this.batchSize = Math.max(1, batchSize);
+        this.retention = retention;
+    }
+
+    /**
+     * Skips entries written before this server started, its cache is still empty.
+     */
+    public synchronized void start() {
+        try {
+            cursor = database.latestChange();
+        } catch (StorageException e) {
+            logger.log(Level.WARNING, "Failed to read the change feed", e);
+        }
+    }
+
+    // ============================================================
+    // Publishing
+    // ============================================================
+
+    /**
+     * Appends a chest to the feed once the given write completed.
+     *
+     * @param uuid    unique identifier of the player
+     * @param written completes when the change reached storage
+     */
+    public void publish(UUID uuid, CompletableFuture<?> written) {
+
+        written.whenCompleteAsync((ignored, error) -> {
+            // A failed write changed nothing other servers could see
+            if (error != null) return;
+            try {
+                database.publishChange(uuid, server, System.currentTimeMillis());
+            } catch (StorageException e) {
+                logger.log(Level.WARNING, "Failed to publish the change of " + uuid, e);
+            }
+        }, executor);
+    }
+
+    // ============================================================
+    // Polling
+    // ============================================================
+
+    /**
+     * Reads all new entries written by other servers, batch by batch,
+     * starting a lookback window before the cursor.
+     * Called by a timer off the server thread.
+     *
+     * @return newest version per changed chest not reported before, empty if nothing changed
+     */
+    public synchronized Map<UUID, Long> poll() {
+
+        Map<UUID, Long> changed = new HashMap<>();
+        try {
+            long from = Math.max(0L, cursor - LOOKBACK);
+            List<ChestChange> batch;
+            do {
+                batch = database.readChanges(from, batchSize);
+                for (ChestChange change : batch) {
+                    from = change.getId();
+                    cursor = Math.max(cursor, from);
+                    if (!change.getServer().equals(server) && isNew(change)) {
+                        changed.merge(change.getUuid(), change.getVersion(), Math::max);
+                    }
+                }
+            } while (batch.size() == batchSize);
+
+            long now = System.currentTimeMillis();
+            if (now >= nextPrune) {
+                database.pruneChanges(now - retention);
+                nextPrune = now + PRUNE_INTERVAL;
+            }
+        } catch (StorageException e) {
+            logger.log(Level.WARNING, "Failed to read the change feed", e);
+        }
+        return changed;
+    }
+
+    /**
+     * Records a change as reported, returning false if it or a newer version of the chest already was.
+     */
+    private boolean isNew(ChestChange change) {
+        Long previous = reported.get(change.getUuid());
+        if (previous != null && previous >= change.getVersion()) return false;
+
+        // Re-inserted so the most recently changed chests are evicted last
+        reported.remove(change.getUuid());
+        reported.put(change.getUuid(), change.getVersion());
+        return true;
+    }
+}
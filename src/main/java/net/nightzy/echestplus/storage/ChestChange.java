@@ -0,0 +1,50 @@
+package net.nightzy.echestplus.storage;
+
+import java.util.UUID;
+
+/**
+ * Entry of the change feed: a server changed a player's stored chest.
+ * Other servers read the feed to drop their cached copies of the chest.
+ */
+public final class ChestChange {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final long id;       // Position in the feed, increases with every entry
+    private final UUID uuid;     // Owner of the chest
+    private final long version;  // Stored version of the chest after the change
+    private final String server; // Name of the server that made the change
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    public ChestChange(long id, UUID uuid, long version, String server) {
+        this.id = id;
+        this.uuid = uuid;
+        this.version = version;
+        this.server = server;
+    }
+
+    // ============================================================
+    // Accessors
+    // ============================================================
+
+    public long getId() {
+        return id;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getServer() {
+        return server;
+    }
+}
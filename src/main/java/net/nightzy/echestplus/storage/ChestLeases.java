@@ -0,0 +1,232 @@
+package net.nightzy.echestplus.storage;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ownership of ender chests for servers sharing one database.
+ *
+ * A server claims a player's chest when the player joins and releases it once
+ * the last save after the player left reached storage. A server that finds the
+ * chest claimed by another one polls until it is released, so it never loads
+ * contents the other server is still writing. Leases are renewed by a timer and
+ * expire when their server stops renewing them, e.g. after a crash.
+ *
+ * Expiry compares the clocks of different servers, so they must be in sync
+ * to well within the lease time.
+ */
+public class ChestLeases {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final DatabaseProvider database; // Provider storing the leases
+    private final Executor executor;         // Runs releases off the server thread
+    private final Logger logger;
+    private final String server;             // Name of this server in the lease table
+    private final long ttl;                  // Milliseconds a lease lasts without renewal
+    private final long waitTimeout;          // Milliseconds a join waits for another server
+    private final long pollInterval;         // Milliseconds between claims while waiting
+    private final Object[] stripes;          // Serialize claims and releases of one chest, see stripe()
+
+    /**
+     * Chests this server holds, with the stamp of the claim.
+     * A release only applies to the claim it was requested for, so a player
+     * rejoining before the release ran keeps the chest.
+     */
+    private final Map<UUID, Long> held = new ConcurrentHashMap<>();
+    private final AtomicLong stamps = new AtomicLong();
+
+    private static final int STRIPES = 64;
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * @param database     provider storing the leases
+     * @param executor     runs releases off the server thread
+     * @param logger       logger for lease failures
+     * @param server       name of this server, unique among servers sharing the database
+     * @param ttl          milliseconds a lease lasts without renewal
+     * @param waitTimeout  milliseconds a join waits for another server to release the chest
+     * @param pollInterval milliseconds between claims while waiting
+     */
+    public ChestLeases(DatabaseProvider database, Executor executor, Logger logger, String server,
+                       long ttl, long waitTimeout, long pollInterval) {
+        this.database = database;
+        this.executor = executor;
+        this.logger = logger;
+        this.server = server;
+        this.ttl = ttl;
+        this.waitTimeout = waitTimeout;
+        this.pollInterval = Math.max(1L, pollInterval);
+
+        this.stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    // ============================================================
+    // Claiming
+    // ============================================================
+
+    /**
+     * Claims a player's chest, waiting while another server holds it.
+     * Blocks, so it must not run on the server thread. The chest must not be
+     * loaded without the claim: a server keeps its lease while its last save
+     * failed, and the contents then only exist in that server's journal.
+     *
+     * @param uuid unique identifier of the player
+     * @throws StorageException if the chest is still claimed after the wait timeout,
+     *                          the lease table cannot be reached or the wait is interrupted
+     */
+    public void acquire(UUID uuid) {
+
+        long deadline = System.currentTimeMillis() + waitTimeout;
+        while (!tryAcquire(uuid)) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new StorageException("Ender chest of " + uuid + " is still claimed by another server", null);
+            }
+
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Interrupted while claiming the ender chest of " + uuid, e);
+            }
+        }
+    }
+
+    /**
+     * Claims a player's chest without waiting, e.g. before replaying its journaled snapshot.
+     *
+     * @param uuid unique identifier of the player
+     * @return true if this server holds the chest now, false if another server does
+     * @throws StorageException if the lease table cannot be reached
+     */
+    public boolean claim(UUID uuid) {
+        return tryAcquire(uuid);
+    }
+
+    /**
+     * Claims a chest once, recording the claim if it succeeded.
+     * Runs under the chest's stripe, so a release of an older claim cannot
+     * drop the lease between this claim and its record.
+     */
+    private boolean tryAcquire(UUID uuid) {
+
+        synchronized (stripe(uuid)) {
+            long now = System.currentTimeMillis();
+            if (!database.tryLease(uuid, server, now, now + ttl)) return false;
+
+            held.put(uuid, stamps.incrementAndGet());
+            return true;
+        }
+    }
+
+    /**
+     * Returns the lock guarding the lease calls of a chest. Lease calls block on
+     * the database, so they run under these locks instead of a map bin lock.
+     */
+    private Object stripe(UUID uuid) {
+        return stripes[Math.floorMod(uuid.hashCode(), STRIPES)];
+    }
+
+    // ============================================================
+    // Releasing
+    // ============================================================
+
+    /**
+     * Releases a player's chest once the given write completed.
+     * If the write failed, the lease is kept until this server stops,
+     * as the latest contents only exist in its save journal.
+     *
+     * @param uuid    unique identifier of the player
+     * @param written completes when the player's last save reached storage
+     */
+    public void releaseAfter(UUID uuid, CompletableFuture<Void> written) {
+
+        Long stamp = held.get(uuid);
+        if (stamp == null) return;
+
+        written.whenCompleteAsync((ignored, error) -> {
+            if (error != null) {
+                logger.warning("Keeping the lease on the ender chest of " + uuid + ", its last save failed.");
+                return;
+            }
+
+            synchronized (stripe(uuid)) {
+                // A newer claim of the player keeps the chest
+                if (!held.remove(uuid, stamp)) return;
+                try {
+                    database.releaseLease(uuid, server);
+                } catch (StorageException e) {
+                    logger.log(Level.WARNING, "Failed to release the ender chest of " + uuid, e);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Releases every chest this server holds, including leases left behind
+     * by a previous run under the same name.
+     */
+    public void releaseAll() {
+
+        held.clear();
+        try {
+            database.releaseLeases(server);
+        } catch (StorageException e) {
+            logger.log(Level.WARNING, "Failed to release the ender chests of " + server, e);
+        }
+    }
+
+    // ============================================================
+    // Renewal
+    // ============================================================
+
+    /**
+     * Extends all leases of this server. Called by a timer well within the lease time.
+     */
+    public void renew() {
+
+        if (held.isEmpty()) return;
+        try {
+            database.renewLeases(server, System.currentTimeMillis() + ttl);
+        } catch (StorageException e) {
+            logger.log(Level.WARNING, "Failed to renew the ender chest leases of " + server, e);
+        }
+    }
+
+    /**
+     * Returns whether this server currently holds a player's chest.
+     *
+     * @param uuid unique identifier of the player
+     */
+    public boolean holds(UUID uuid) {
+        return held.containsKey(uuid);
+    }
+
+    /**
+     * Returns the milliseconds a lease lasts without renewal.
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Returns the name of this server in the lease table.
+     */
+    public String getServer() {
+        return server;
+    }
+}
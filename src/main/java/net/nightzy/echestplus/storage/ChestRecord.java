@@ -0,0 +1,99 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.UUID;
+
+/**
+ * Stored state of a single player's ender chest.
+ * Holds everything a provider reads or writes for one player in one round trip.
+ */
+public final class ChestRecord {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    public static final int BASE_SIZE = 27; // Chest size without upgrades
+    public static final int MAX_SIZE = 54;  // Largest chest size that can be stored
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final UUID uuid;         // Owner of the chest
+    private final int upgrades;      // Number of purchased upgrades
+    private final ItemStack[] items; // Chest contents, sized to the chest
+    private final long version;      // Stored revision of the record
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * Creates a record.
+     *
+     * @param uuid     owner of the chest
+     * @param upgrades number of upgrades
+     * @param items    chest contents
+     * @param version  stored revision of the record
+     */
+    public ChestRecord(UUID uuid, int upgrades, ItemStack[] items, long version) {
+        this.uuid = uuid;
+        this.upgrades = Math.max(0, upgrades);
+        this.items = items;
+        this.version = version;
+    }
+
+    /**
+     * Creates the record of a player that has nothing stored yet.
+     */
+    public static ChestRecord empty(UUID uuid) {
+        return new ChestRecord(uuid, 0, new ItemStack[BASE_SIZE], 0L);
+    }
+
+    // ============================================================
+    // Accessors
+    // ============================================================
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public int getUpgrades() {
+        return upgrades;
+    }
+
+    /**
+     * Returns the chest size derived from the upgrade count.
+     */
+    public int getSize() {
+        return sizeOf(upgrades);
+    }
+
+    public ItemStack[] getItems() {
+        return items;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // ============================================================
+    // Size Conversion
+    // ============================================================
+
+    /**
+     * Returns the chest size for an upgrade count (base 27 + upgrades * 9).
+     */
+    public static int sizeOf(int upgrades) {
+        return Math.min(MAX_SIZE, BASE_SIZE + Math.max(0, upgrades) * 9);
+    }
+
+    /**
+     * Returns the upgrade count for a chest size.
+     */
+    public static int upgradesOf(int size) {
+        return Math.max(0, (size - BASE_SIZE) / 9);
+    }
+}
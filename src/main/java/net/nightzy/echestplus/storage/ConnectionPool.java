@@ -0,0 +1,278 @@
+package net.nightzy.echestplus.storage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small JDBC connection pool used by the SQL backend.
+ *
+ * Connections are created lazily up to the configured pool size, validated
+ * when they have been idle for a while, closed once they exceed the idle
+ * timeout, and each one keeps its own cache of prepared statements.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final int MIN_STATEMENT_CACHE = 4; // Callers may hold a few statements at once
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final String jdbcUri;             // JDBC connection string
+    private final long connectionTimeoutMs;   // Maximum time to wait for a free connection
+    private final long idleTimeoutMs;         // Idle connections older than this are closed
+    private final long validationIntervalMs;  // Idle connections older than this are validated
+    private final int statementCacheSize;     // Prepared statements cached per connection
+
+    private final Semaphore permits;          // One permit per connection that may be borrowed
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed = false;
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * Creates a pool and opens its first connection to fail fast on bad settings.
+     *
+     * @param jdbcUri              JDBC connection string
+     * @param poolSize             maximum number of open connections
+     * @param connectionTimeoutMs  maximum time to wait for a free connection
+     * @param idleTimeoutMs        idle time after which a connection is closed
+     * @param validationIntervalMs idle time after which a connection is validated before use
+     * @param statementCacheSize   number of prepared statements cached per connection
+     * @throws SQLException if the first connection cannot be opened
+     */
+    public ConnectionPool(String jdbcUri, int poolSize, long connectionTimeoutMs,
+                          long idleTimeoutMs, long validationIntervalMs, int statementCacheSize) throws SQLException {
+        this.jdbcUri = jdbcUri;
+        this.connectionTimeoutMs = connectionTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.statementCacheSize = Math.max(MIN_STATEMENT_CACHE, statementCacheSize);
+        this.permits = new Semaphore(Math.max(1, poolSize), true);
+
+        idle.offerFirst(new PooledConnection(DriverManager.getConnection(jdbcUri)));
+    }
+
+    // ============================================================
+    // Borrowing
+    // ============================================================
+
+    /**
+     * Borrows a connection, waiting up to the connection timeout for one to become free.
+     * The returned connection must be closed to give it back to the pool.
+     *
+     * @return a validated connection
+     * @throws SQLException if no connection is available or a new one cannot be opened
+     */
+    public PooledConnection borrow() throws SQLException {
+
+        if (closed) throw new SQLException("Connection pool is closed");
+
+        try {
+            if (!permits.tryAcquire(connectionTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(
+                        "Timed out after " + connectionTimeoutMs + "ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) return pooled;
+                pooled.closeQuietly();
+            }
+            return new PooledConnection(DriverManager.getConnection(jdbcUri));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether an idle connection can be handed out.
+     */
+    private boolean isUsable(PooledConnection pooled) {
+
+        long idleFor = System.currentTimeMillis() - pooled.lastUsed;
+        if (idleFor > idleTimeoutMs) return false;
+
+        try {
+            if (pooled.connection.isClosed()) return false;
+            if (idleFor > validationIntervalMs) return pooled.connection.isValid(5);
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool and closes connections that idled too long.
+     */
+    private void release(PooledConnection pooled) {
+
+        try {
+            boolean broken;
+            try {
+                broken = pooled.connection.isClosed();
+                if (!broken && !pooled.connection.getAutoCommit()) {
+                    // Leftover transaction from a failed caller
+                    pooled.connection.rollback();
+                    pooled.connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                broken = true;
+            }
+
+            if (broken || closed) {
+                pooled.closeQuietly();
+            } else {
+                pooled.lastUsed = System.currentTimeMillis();
+                // Most recently used first, so surplus connections age out at the tail
+                idle.offerFirst(pooled);
+            }
+
+            evictIdle();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes idle connections that exceeded the idle timeout.
+     * The deque is ordered by last use, so only the tail needs checking.
+     */
+    private void evictIdle() {
+
+        long now = System.currentTimeMillis();
+        PooledConnection oldest;
+        while ((oldest = idle.peekLast()) != null && now - oldest.lastUsed > idleTimeoutMs) {
+            if (idle.removeLastOccurrence(oldest)) {
+                oldest.closeQuietly();
+            }
+        }
+    }
+
+    // ============================================================
+    // Shutdown
+    // ============================================================
+
+    /**
+     * Closes all idle connections. Borrowed connections are closed when returned.
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.closeQuietly();
+        }
+    }
+
+    // ============================================================
+    // Pooled Connection
+    // ============================================================
+
+    /**
+     * A borrowed connection with its own prepared statement cache.
+     * Closing it returns the connection to the pool.
+     */
+    public final class PooledConnection implements AutoCloseable {
+
+        private final Connection connection;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        /**
+         * Least recently used cache of prepared statements keyed by SQL.
+         */
+        private final Map<String, PreparedStatement> statements =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= statementCacheSize) return false;
+                        closeStatement(eldest.getValue());
+                        return true;
+                    }
+                };
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Returns the underlying JDBC connection, e.g. for transactions.
+         */
+        public Connection connection() {
+            return connection;
+        }
+
+        /**
+         * Returns a prepared statement for the SQL, reusing a cached one if possible.
+         * Cached statements are owned by the pool and must not be closed by the caller.
+         *
+         * @param sql statement text
+         * @return prepared statement with cleared parameters
+         * @throws SQLException if the statement cannot be prepared
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+
+            PreparedStatement ps = statements.get(sql);
+            if (ps != null && !ps.isClosed()) {
+                ps.clearParameters();
+                return ps;
+            }
+
+            ps = connection.prepareStatement(sql);
+            statements.put(sql, ps);
+            return ps;
+        }
+
+        /**
+         * Gives the connection back to the pool.
+         */
+        @Override
+        public void close() {
+            release(this);
+        }
+
+        /**
+         * Closes cached statements and the physical connection.
+         */
+        private void closeQuietly() {
+
+            Iterator<PreparedStatement> it = statements.values().iterator();
+            while (it.hasNext()) {
+                closeStatement(it.next());
+                it.remove();
+            }
+
+            try {
+                connection.close();
+            } catch (SQLException ignored) {}
+        }
+
+        private void closeStatement(PreparedStatement ps) {
+            try {
+                ps.close();
+            } catch (SQLException ignored) {}
+        }
+    }
+}
@@ -3,6 +3,8 @@ package net.nightzy.echestplus.storage;
 import net.nightzy.echestplus.config.ConfigManager;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+
 /**
  * Factory class responsible for creating the appropriate
  * DatabaseProvider implementation based on configuration.
@@ -18,8 +20,22 @@ public class DatabaseFactory {
      * @return initialized DatabaseProvider implementation
      */
     public static DatabaseProvider create(JavaPlugin plugin, ConfigManager config) {
+        return create(plugin, config, true);
+    }
+
+    /**
+     * Creates a DatabaseProvider instance depending on the configured
+     * storage backend type.
+     *
+     * @param plugin   plugin instance (used for logging and data folder access)
+     * @param config   configuration manager
+     * @param fallback true to fall back to YML storage if the backend fails to start
+     * @return initialized DatabaseProvider implementation
+     * @throws StorageException if the backend fails to start and fallback is disabled
+     */
+    public static DatabaseProvider create(JavaPlugin plugin, ConfigManager config, boolean fallback) {
 
-        // Database backend type defined in config (e.g. YML, SQLITE, MYSQL)
+        // Database backend type defined in config (e.g. YML, SQLITE, MYSQL, SLOTFILE)
         String baseType = config.getBaseType();
 
         // Connection URI used by SQL-based providers
@@ -34,19 +50,53 @@ public class DatabaseFactory {
             case "SQLITE":
             case "MYSQL":
                 try {
-                    // SQLite and MySQL are handled by the same JDBC-backed provider
-                    return new SqlDatabase(uri);
+                    // SQLite allows a single writer, extra connections would only hit SQLITE_BUSY
+                    int poolSize = uri != null && uri.startsWith("jdbc:sqlite:") ? 1 : config.getSqlPoolSize();
+
+                    ConnectionPool pool = new ConnectionPool(
+                            uri,
+                            poolSize,
+                            config.getSqlConnectionTimeout(),
+                            config.getSqlIdleTimeout(),
+                            config.getSqlValidationInterval(),
+                            config.getSqlStatementCacheSize()
+                    );
+
+                    // SQLite and MySQL share the JDBC-backed provider, only the dialect differs
+                    SqlDialect dialect = baseType.equalsIgnoreCase("MYSQL") ? new MySqlDialect() : new SqliteDialect();
+                    return new SqlDatabase(pool, dialect);
                 } catch (Exception e) {
+                    if (!fallback) throw new StorageException("Failed to initialize SQL backend", e);
+
                     // Log initialization failure and fall back to YML storage
                     plugin.getLogger().warning("Failed to initialize SQL backend: " + e.getMessage());
                     e.printStackTrace();
                     break;
                 }
 
+            case "SLOTFILE":
+                try {
+                    // Embedded memory-mapped files in the plugin folder, no connection URI needed
+                    return new SlotFileDatabase(new File(plugin.getDataFolder(), "slotfile"), plugin.getLogger());
+                } catch (Exception e) {
+                    if (!fallback) throw new StorageException("Failed to initialize slot file backend", e);
+
+                    plugin.getLogger().warning("Failed to initialize slot file backend: " + e.getMessage());
+                    e.printStackTrace();
+                    break;
+                }
+
             case "MONGODB":
-                // MongoDB support is not implemented yet
-                plugin.getLogger().warning("MongoDB backend is not implemented. Falling back to YML.");
-                break;
+                try {
+                    return new DatabaseMongo(uri);
+                } catch (Exception e) {
+                    if (!fallback) throw new StorageException("Failed to initialize MongoDB backend", e);
+
+                    // Log initialization failure and fall back to YML storage
+                    plugin.getLogger().warning("Failed to initialize MongoDB backend: " + e.getMessage());
+                    e.printStackTrace();
+                    break;
+                }
 
             default:
                 // Any unknown or unsupported type is treated as YML
@@ -54,6 +104,6 @@ public class DatabaseFactory {
         }
 
         // Default fallback: file-based YML storage
-        return new DatabaseYML(plugin.getDataFolder());
+        return new DatabaseYML(plugin.getDataFolder(), config.getYmlCacheSize(), config.getYmlFlushDelay());
     }
 }
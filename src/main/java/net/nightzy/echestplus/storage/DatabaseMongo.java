@@ -0,0 +1,386 @@
+package net.nightzy.echestplus.storage;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import net.nightzy.echestplus.util.ItemSerializer;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * MongoDB-based implementation of DatabaseProvider.
+ *
+ * Stores one document per player in the "chests" collection:
+ * <pre>
+ * { _id: UUID, upgrades: int, version: long, slots: { "&lt;index&gt;": BinData, ... } }
+ * </pre>
+ * The UUID is the document id, so lookups use the built-in unique _id index.
+ * Each occupied slot is its own field, which lets saves $set and $unset only
+ * the slots that changed. Batches from the save queue go out as one unordered bulkWrite.
+ */
+public class DatabaseMongo implements DatabaseProvider {
+
+    // Collection holding one document per player
+    private static final String COLLECTION = "chests";
+
+    // Collection mapping lower case player names to UUIDs
+    private static final String NAME_COLLECTION = "names";
+
+    // Database used when the connection URI does not name one
+    private static final String DEFAULT_DATABASE = "echestplus";
+
+    // Maximum number of ids in a single $in lookup
+    private static final int BATCH_CHUNK = 100;
+
+    // Insert the document if the player has none yet
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    // Client owned by this provider, null if the caller manages it
+    private final MongoClient client;
+
+    // Player documents
+    private final MongoCollection<Document> chests;
+
+    // Name documents { _id: name, uuid: UUID }, null if names are not kept
+    private final MongoCollection<Document> names;
+
+    /**
+     * Connects to the server named in the connection URI.
+     *
+     * @param uri MongoDB connection string, optionally naming the database
+     */
+    public DatabaseMongo(String uri) {
+        ConnectionString connection = new ConnectionString(uri);
+        MongoClientSettings settings = MongoClientSettings.builder()
+                .applyConnectionString(connection)
+                .uuidRepresentation(UuidRepresentation.STANDARD)
+                .build();
+
+        this.client = MongoClients.create(settings);
+        String database = connection.getDatabase() != null ? connection.getDatabase() : DEFAULT_DATABASE;
+        this.chests = client.getDatabase(database).getCollection(COLLECTION);
+        this.names = client.getDatabase(database).getCollection(NAME_COLLECTION);
+
+        // Fail fast on a wrong URI instead of on the first save
+        client.getDatabase(database).runCommand(new Document("ping", 1));
+    }
+
+    /**
+     * Uses an existing collection, e.g. one backed by a local test server.
+     * The collection must encode UUIDs with the standard representation.
+     * Player names are not kept.
+     *
+     * @param chests collection holding the player documents
+     */
+    public DatabaseMongo(MongoCollection<Document> chests) {
+        this.client = null;
+        this.chests = chests;
+        this.names = null;
+    }
+
+    private static Bson byId(UUID uuid) {
+        return Filters.eq("_id", uuid);
+    }
+
+    /**
+     * Returns the number of upgrades, fetching only the upgrades field.
+     *
+     * @param uuid player's UUID
+     * @return upgrades count, 0 if the player has no chest yet
+     * @throws StorageException if the collection could not be read
+     */
+    @Override
+    public int getUpgrades(UUID uuid) {
+        try {
+            Document doc = chests.find(byId(uuid)).projection(Projections.include("upgrades")).first();
+            return doc != null ? doc.getInteger("upgrades", 0) : 0;
+        } catch (MongoException e) {
+            throw new StorageException("Failed to load upgrades of " + uuid, e);
+        }
+    }
+
+    /**
+     * Sets the number of upgrades, creating the document if missing.
+     *
+     * @param uuid player's UUID
+     * @param upgrades number of upgrades
+     * @throws StorageException if the write failed
+     */
+    @Override
+    public void setUpgrades(UUID uuid, int upgrades) {
+        try {
+            chests.updateOne(byId(uuid), Updates.combine(
+                    Updates.set("upgrades", upgrades),
+                    Updates.inc("version", 1L)
+            ), UPSERT);
+        } catch (MongoException e) {
+            throw new StorageException("Failed to update upgrades of " + uuid, e);
+        }
+    }
+
+    /**
+     * Sets the number of upgrades with one updateOne filtered on the version.
+     * Only a chest expected to be new is upserted; if another server created it
+     * first, the duplicate _id counts as a conflict.
+     *
+     * @param uuid player's UUID
+     * @param upgrades number of upgrades
+     * @param expectedVersion version the new value was computed from
+     * @return true if written, false on a version conflict
+     */
+    @Override
+    public boolean setUpgradesIfVersion(UUID uuid, int upgrades, long expectedVersion) {
+        Bson version = expectedVersion == 0L
+                ? Filters.or(Filters.eq("version", 0L), Filters.exists("version", false))
+                : Filters.eq("version", expectedVersion);
+        Bson change = Updates.combine(Updates.set("upgrades", upgrades), Updates.inc("version", 1L));
+
+        try {
+            UpdateResult result = chests.updateOne(Filters.and(byId(uuid), version), change,
+                    expectedVersion == 0L ? UPSERT : new UpdateOptions());
+            return result.getMatchedCount() > 0 || result.getUpsertedId() != null;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) return false;
+            throw new StorageException("Failed to update upgrades of " + uuid, e);
+        } catch (MongoException e) {
+            throw new StorageException("Failed to update upgrades of " + uuid, e);
+        }
+    }
+
+    @Override
+    public void saveName(String name, UUID uuid) {
+        if (names == null) return;
+        try {
+            names.updateOne(Filters.eq("_id", name), Updates.set("uuid", uuid), UPSERT);
+        } catch (MongoException e) {
+            throw new StorageException("Failed to save the name of " + uuid, e);
+        }
+    }
+
+    @Override
+    public UUID lookupName(String name) {
+        if (names == null) return null;
+        try {
+            Document doc = names.find(Filters.eq("_id", name)).first();
+            return doc != null ? doc.get("uuid", UUID.class) : null;
+        } catch (MongoException e) {
+            throw new StorageException("Failed to look up the player " + name, e);
+        }
+    }
+
+    @Override
+    public int getSize(UUID uuid) {
+        return ChestRecord.sizeOf(getUpgrades(uuid));
+    }
+
+    @Override
+    public void setSize(UUID uuid, int size) {
+        setUpgrades(uuid, ChestRecord.upgradesOf(size));
+    }
+
+    /**
+     * Replaces all stored slots of a player.
+     *
+     * @param uuid player's UUID
+     * @param items ItemStack array to save
+     */
+    @Override
+    public void saveItems(UUID uuid, ItemStack[] items) {
+        BitSet all = new BitSet(items.length);
+        all.set(0, items.length);
+        saveSlots(Collections.singletonList(new SlotUpdate(uuid, items, all)));
+    }
+
+    /**
+     * Writes only the changed slots of a player.
+     *
+     * @param uuid player's UUID
+     * @param items ItemStack array to save
+     * @param slots indexes of the slots that changed
+     */
+    @Override
+    public void saveSlots(UUID uuid, ItemStack[] items, BitSet slots) {
+        saveSlots(Collections.singletonList(new SlotUpdate(uuid, items, slots)));
+    }
+
+    /**
+     * Writes the changed slots of several players with one unordered bulkWrite.
+     *
+     * @param updates pending writes, at most one per player
+     * @throws StorageException if any write of the batch failed
+     */
+    @Override
+    public void saveSlots(Collection<SlotUpdate> updates) {
+        List<WriteModel<Document>> writes = new ArrayList<>(updates.size());
+        try {
+            for (SlotUpdate update : updates) {
+                Bson change = slotChanges(update);
+                if (change != null) writes.add(new UpdateOneModel<>(byId(update.getUuid()), change, UPSERT));
+            }
+            if (!writes.isEmpty()) chests.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        } catch (IOException | MongoException e) {
+            throw new StorageException("Failed to save " + updates.size() + " ender chests", e);
+        }
+    }
+
+    /**
+     * Builds the update for one player: the whole slots document for full saves,
+     * otherwise $set for filled and $unset for emptied slots. Both increment the version.
+     */
+    private Bson slotChanges(SlotUpdate update) throws IOException {
+        ItemStack[] items = update.getItems();
+
+        if (update.isFull()) {
+            return Updates.combine(Updates.set("slots", toSlots(items)), Updates.inc("version", 1L));
+        }
+
+        List<Bson> changes = new ArrayList<>();
+        BitSet slots = update.getSlots();
+        for (int i = slots.nextSetBit(0); i >= 0 && i < items.length; i = slots.nextSetBit(i + 1)) {
+            if (ItemSerializer.isEmpty(items[i])) {
+                changes.add(Updates.unset("slots." + i));
+            } else {
+                changes.add(Updates.set("slots." + i, new Binary(ItemSerializer.itemToBytes(items[i]))));
+            }
+        }
+        if (changes.isEmpty()) return null;
+
+        changes.add(Updates.inc("version", 1L));
+        return Updates.combine(changes);
+    }
+
+    @Override
+    public ItemStack[] loadItems(UUID uuid, int size) {
+        return Arrays.copyOf(loadRecord(uuid).getItems(), size);
+    }
+
+    // ============================================================
+    // Record Access
+    // ============================================================
+
+    /**
+     * Loads upgrades, version and contents from a single document.
+     *
+     * @param uuid player's UUID
+     * @return stored record, or an empty record if the player has no document
+     * @throws StorageException if the collection could not be read or a slot could not be decoded
+     */
+    @Override
+    public ChestRecord loadRecord(UUID uuid) {
+        try {
+            Document doc = chests.find(byId(uuid)).first();
+            return doc != null ? readRecord(uuid, doc) : ChestRecord.empty(uuid);
+        } catch (MongoException e) {
+            throw new StorageException("Failed to load the ender chest of " + uuid, e);
+        }
+    }
+
+    /**
+     * Loads several records using chunked $in queries.
+     *
+     * @param uuids players to load
+     * @return records keyed by player, with an empty record for players without a document
+     * @throws StorageException if the collection could not be read or a slot could not be decoded
+     */
+    @Override
+    public Map<UUID, ChestRecord> loadRecords(Collection<UUID> uuids) {
+        Map<UUID, ChestRecord> records = new LinkedHashMap<>();
+        List<UUID> all = new ArrayList<>(uuids);
+
+        try {
+            for (int from = 0; from < all.size(); from += BATCH_CHUNK) {
+                List<UUID> chunk = all.subList(from, Math.min(all.size(), from + BATCH_CHUNK));
+                for (Document doc : chests.find(Filters.in("_id", chunk))) {
+                    UUID uuid = doc.get("_id", UUID.class);
+                    records.put(uuid, readRecord(uuid, doc));
+                }
+            }
+        } catch (MongoException e) {
+            throw new StorageException("Failed to load " + all.size() + " ender chests", e);
+        }
+
+        for (UUID uuid : all) {
+            records.putIfAbsent(uuid, ChestRecord.empty(uuid));
+        }
+        return records;
+    }
+
+    /**
+     * Closes the client if this provider created it.
+     */
+    @Override
+    public void close() {
+        if (client != null) client.close();
+    }
+
+    // ============================================================
+    // Document Conversion
+    // ============================================================
+
+    /**
+     * Builds the slots document holding every occupied slot.
+     */
+    private static Document toSlots(ItemStack[] items) throws IOException {
+        Document slots = new Document();
+        for (int i = 0; i < items.length; i++) {
+            if (!ItemSerializer.isEmpty(items[i])) {
+                slots.append(String.valueOf(i), new Binary(ItemSerializer.itemToBytes(items[i])));
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Builds a record from a player document. Slots beyond the chest size are ignored.
+     *
+     * @throws StorageException if a slot cannot be decoded; dropping it would let the
+     *                          next full save erase its stored bytes
+     */
+    private static ChestRecord readRecord(UUID uuid, Document doc) {
+        int upgrades = doc.getInteger("upgrades", 0);
+        Number version = doc.get("version", Number.class);
+        ItemStack[] items = new ItemStack[ChestRecord.sizeOf(upgrades)];
+
+        Document slots = doc.get("slots", Document.class);
+        if (slots != null) {
+            for (Map.Entry<String, Object> entry : slots.entrySet()) {
+                try {
+                    int slot = Integer.parseInt(entry.getKey());
+                    if (slot < 0 || slot >= items.length || !(entry.getValue() instanceof Binary)) continue;
+                    items[slot] = ItemSerializer.itemFromBytes(((Binary) entry.getValue()).getData());
+                } catch (NumberFormatException | IOException | ClassNotFoundException e) {
+                    throw new StorageException("Failed to decode slot " + entry.getKey() + " of the ender chest of " + uuid, e);
+                }
+            }
+        }
+
+        return new ChestRecord(uuid, upgrades, items, version != null ? version.longValue() : 0L);
+    }
+}
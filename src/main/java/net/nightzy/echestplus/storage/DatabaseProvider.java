@@ -1,19 +1,38 @@
 package net.nightzy.echestplus.storage;
 
 import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.IntUnaryOperator;
 
 /**
  * Interface defining the contract for all database storage providers.
  * Handles ender chest sizes, upgrades, and inventory persistence.
+ *
+ * Every stored chest carries a version that each write of upgrades or contents
+ * increments. Read-modify-write changes go through {@link #updateUpgrades},
+ * which retries a compare-and-set on that version. Content writes only touch the
+ * slots that changed, so concurrent writers are merged slot by slot.
  */
 public interface DatabaseProvider {
 
+    /**
+     * Attempts of {@link #updateUpgrades} before the change is rejected.
+     */
+    int CAS_ATTEMPTS = 5;
+
     /**
      * Retrieves the number of upgrades a player has purchased.
      *
      * @param uuid unique identifier of the player
      * @return number of upgrades
+     * @throws StorageException if storage could not be read, never answered with 0
      */
     int getUpgrades(UUID uuid);
 
@@ -22,6 +41,7 @@ public interface DatabaseProvider {
      *
      * @param uuid unique identifier of the player
      * @param upgrades new upgrade count
+     * @throws StorageException if the write failed
      */
     void setUpgrades(UUID uuid, int upgrades);
 
@@ -49,6 +69,31 @@ public interface DatabaseProvider {
      */
     void saveItems(UUID uuid, ItemStack[] items);
 
+    /**
+     * Persists only the listed slots of a player's ender chest.
+     * Slots that are not listed are left as stored.
+     * Backends without a per-slot layout fall back to writing the whole chest.
+     *
+     * @param uuid unique identifier of the player
+     * @param items array of ItemStack representing the chest contents
+     * @param slots indexes of the slots that changed
+     */
+    default void saveSlots(UUID uuid, ItemStack[] items, BitSet slots) {
+        saveItems(uuid, items);
+    }
+
+    /**
+     * Persists the changed slots of several players at once.
+     * Backends override this to send the whole batch in one round trip.
+     *
+     * @param updates pending writes, at most one per player
+     */
+    default void saveSlots(Collection<SlotUpdate> updates) {
+        for (SlotUpdate update : updates) {
+            saveSlots(update.getUuid(), update.getItems(), update.getSlots());
+        }
+    }
+
     /**
      * Loads the items of a player's ender chest.
      *
@@ -57,4 +102,209 @@ public interface DatabaseProvider {
      * @return array of ItemStack containing the player's items
      */
     ItemStack[] loadItems(UUID uuid, int size);
+
+    // ============================================================
+    // Record Access
+    // ============================================================
+
+    /**
+     * Loads upgrades, contents and version of a player's ender chest at once.
+     * Backends override this to use a single query or file read.
+     *
+     * @param uuid unique identifier of the player
+     * @return stored record, or an empty record if nothing is stored
+     * @throws StorageException if the record could not be read, never answered with an empty record
+     */
+    default ChestRecord loadRecord(UUID uuid) {
+        int upgrades = getUpgrades(uuid);
+        return new ChestRecord(uuid, upgrades, loadItems(uuid, ChestRecord.sizeOf(upgrades)), 0L);
+    }
+
+    /**
+     * Loads the records of several players.
+     *
+     * @param uuids unique identifiers of the players
+     * @return records keyed by player, with an empty record for players without data
+     * @throws StorageException if the records could not be read
+     */
+    default Map<UUID, ChestRecord> loadRecords(Collection<UUID> uuids) {
+        Map<UUID, ChestRecord> records = new LinkedHashMap<>();
+        for (UUID uuid : uuids) {
+            records.put(uuid, loadRecord(uuid));
+        }
+        return records;
+    }
+
+    // ============================================================
+    // Versioned Writes
+    // ============================================================
+
+    /**
+     * Sets the number of upgrades only if the stored version still matches,
+     * incrementing the version. The check and the write are atomic.
+     * A player without stored data has version 0.
+     *
+     * @param uuid            unique identifier of the player
+     * @param upgrades        new upgrade count
+     * @param expectedVersion version the new value was computed from
+     * @return true if written, false if another write changed the chest first
+     */
+    boolean setUpgradesIfVersion(UUID uuid, int upgrades, long expectedVersion);
+
+    /**
+     * Changes the number of upgrades without losing concurrent changes.
+     * The change is applied to the stored value and written with a compare-and-set;
+     * on a conflict it is applied again to the newer value.
+     *
+     * @param uuid   unique identifier of the player
+     * @param change computes the new upgrade count from the stored one, may run several times
+     * @return stored upgrade count after the change
+     * @throws StorageException if the chest kept changing for {@link #CAS_ATTEMPTS} attempts
+     */
+    default int updateUpgrades(UUID uuid, IntUnaryOperator change) {
+        for (int attempt = 0; attempt < CAS_ATTEMPTS; attempt++) {
+            ChestRecord current = loadRecord(uuid);
+            int updated = change.applyAsInt(current.getUpgrades());
+            if (updated == current.getUpgrades()) return updated;
+            if (setUpgradesIfVersion(uuid, updated, current.getVersion())) return updated;
+        }
+        throw new StorageException("Upgrades of " + uuid + " kept changing, rejected after "
+                + CAS_ATTEMPTS + " attempts", null);
+    }
+
+    // ============================================================
+    // Player Names
+    // ============================================================
+
+    /**
+     * Records the current name of a player, see {@link #lookupName}.
+     *
+     * @param name player name in lower case
+     * @param uuid unique identifier of the player
+     * @throws StorageException if the name could not be stored
+     */
+    default void saveName(String name, UUID uuid) {
+    }
+
+    /**
+     * Returns the player that last joined with a name.
+     *
+     * @param name player name in lower case
+     * @return unique identifier, or null if the name is unknown or the provider keeps no names
+     * @throws StorageException if the names could not be read
+     */
+    default UUID lookupName(String name) {
+        return null;
+    }
+
+    // ============================================================
+    // Leases
+    // ============================================================
+
+    /**
+     * Claims a player's chest for a server, see {@link ChestLeases}.
+     * Succeeds if the chest is unclaimed, already claimed by the server or its lease expired.
+     * Providers that cannot be shared between servers always succeed.
+     *
+     * @param uuid      unique identifier of the player
+     * @param server    name of the claiming server
+     * @param now       current time in epoch milliseconds
+     * @param expiresAt time the lease expires without renewal, in epoch milliseconds
+     * @return true if the server holds the lease now
+     * @throws StorageException if the lease could not be read or written
+     */
+    default boolean tryLease(UUID uuid, String server, long now, long expiresAt) {
+        return true;
+    }
+
+    /**
+     * Extends every lease a server holds.
+     *
+     * @param server    name of the server
+     * @param expiresAt new expiry time in epoch milliseconds
+     * @throws StorageException if the leases could not be written
+     */
+    default void renewLeases(String server, long expiresAt) {
+    }
+
+    /**
+     * Releases a server's lease on a player's chest, if it still holds it.
+     *
+     * @param uuid   unique identifier of the player
+     * @param server name of the server
+     * @throws StorageException if the lease could not be written
+     */
+    default void releaseLease(UUID uuid, String server) {
+    }
+
+    /**
+     * Releases every lease a server holds.
+     *
+     * @param server name of the server
+     * @throws StorageException if the leases could not be written
+     */
+    default void releaseLeases(String server) {
+    }
+
+    // ============================================================
+    // Change Feed
+    // ============================================================
+
+    /**
+     * Appends a player's chest to the change feed, see {@link ChangeFeed}.
+     * Providers that cannot be shared between servers keep no feed.
+     *
+     * @param uuid   unique identifier of the player
+     * @param server name of the server that changed the chest
+     * @param now    current time in epoch milliseconds
+     * @throws StorageException if the entry could not be written
+     */
+    default void publishChange(UUID uuid, String server, long now) {
+    }
+
+    /**
+     * Reads change feed entries in feed order.
+     *
+     * @param afterId id of the last entry already read
+     * @param limit   maximum number of entries
+     * @return entries with a greater id, oldest first
+     * @throws StorageException if the feed could not be read
+     */
+    default List<ChestChange> readChanges(long afterId, int limit) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the id of the newest change feed entry, or 0 if the feed is empty.
+     *
+     * @throws StorageException if the feed could not be read
+     */
+    default long latestChange() {
+        return 0L;
+    }
+
+    /**
+     * Deletes change feed entries written before the given time.
+     *
+     * @param before epoch milliseconds
+     * @throws StorageException if the entries could not be deleted
+     */
+    default void pruneChanges(long before) {
+    }
+
+    /**
+     * Forces writes the provider buffers internally out to storage.
+     * Called before a write is treated as durable, e.g. by the save journal.
+     *
+     * @throws StorageException if buffered writes could not be stored
+     */
+    default void flush() {
+    }
+
+    /**
+     * Writes out anything the provider still buffers and releases its resources.
+     * Called once when the plugin is disabled, after all queued saves were handed over.
+     */
+    default void close() {
+    }
 }
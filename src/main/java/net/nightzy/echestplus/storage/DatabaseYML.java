@@ -5,27 +5,98 @@ import org.bukkit.inventory.ItemStack;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * YML-based implementation of DatabaseProvider.
  * Stores player data in individual YAML files within the plugin data folder.
+ *
+ * Parsed player files are kept in a bounded LRU cache, so reads only hit the
+ * disk on a cache miss. Writes only change the cached document and mark it dirty;
+ * a background writer flushes dirty documents after a short delay, which batches
+ * repeated writes to the same player into one file write. All documents are written
+ * by that single writer thread, so two writes of the same file never overlap.
+ * Files are written to a temporary file, forced to disk and moved into place,
+ * so a crash never leaves a half-written file.
+ * Access is synchronized because saves run on storage threads while
+ * upgrades are still written from other threads.
  */
 public class DatabaseYML implements DatabaseProvider {
 
+    // Characters allowed in player names stored as file names
+    private static final Pattern NAME = Pattern.compile("[a-z0-9_.-]{1,32}");
+
     // Folder where all player data files are stored
     private final File dataFolder;
 
+    // Folder holding one file per player name, containing the player's UUID
+    private final File nameFolder;
+
+    // Maximum number of parsed documents kept in memory (dirty ones are never evicted)
+    private final int cacheSize;
+
+    // Milliseconds a dirty document waits before it is written
+    private final long flushDelay;
+
+    // Parsed player documents in access order
+    private final LinkedHashMap<UUID, YamlConfiguration> documents = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Documents changed since they were last written
+    private final Set<UUID> dirty = new LinkedHashSet<>();
+
+    // Documents currently being written, kept cached until the file is in place
+    private final Set<UUID> writing = new HashSet<>();
+
+    // Background writer, the only thread writing documents while the provider is open
+    private final ScheduledThreadPoolExecutor writer;
+
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+
     /**
      * Constructs the YML database provider and ensures the data folder exists.
      *
      * @param dataFolder base folder for plugin data
+     * @param cacheSize  maximum number of player documents kept in memory
+     * @param flushDelay milliseconds changes are collected before a document is written
      */
-    public DatabaseYML(File dataFolder) {
+    public DatabaseYML(File dataFolder, int cacheSize, long flushDelay) {
         this.dataFolder = new File(dataFolder, "playerdata");
         if (!this.dataFolder.exists()) {
             this.dataFolder.mkdirs(); // create directory if missing
         }
+        this.nameFolder = new File(dataFolder, "names");
+        this.nameFolder.mkdirs();
+        this.cacheSize = Math.max(1, cacheSize);
+        this.flushDelay = Math.max(0L, flushDelay);
+
+        this.writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "EChestPlus-YML-Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // close() flushes on its own, pending delayed flushes are not needed after shutdown
+        this.writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
     }
 
     /**
@@ -39,31 +110,221 @@ public class DatabaseYML implements DatabaseProvider {
     }
 
     /**
-     * Loads the YAML configuration for a player.
+     * Returns the cached document of a player, parsing the file on a cache miss.
      * Creates a new configuration if the file does not exist.
+     * Must be called while holding the lock.
      *
      * @param uuid player's UUID
-     * @return loaded YamlConfiguration
+     * @return cached YamlConfiguration
      */
     private YamlConfiguration loadConfig(UUID uuid) {
+        YamlConfiguration config = documents.get(uuid);
+        if (config != null) return config;
+
         File file = getPlayerFile(uuid);
-        if (file.exists()) {
-            return YamlConfiguration.loadConfiguration(file);
-        }
-        return new YamlConfiguration();
+        config = file.exists() ? YamlConfiguration.loadConfiguration(file) : new YamlConfiguration();
+        documents.put(uuid, config);
+        trim();
+        return config;
     }
 
     /**
-     * Saves the YAML configuration for a player to disk.
+     * Marks a player's document as changed and schedules it to be written.
+     * Must be called while holding the lock.
      *
      * @param uuid player's UUID
-     * @param config configuration to save
+     * @param config changed configuration, replaces the cached one
      */
     private void saveConfig(UUID uuid, YamlConfiguration config) {
+        documents.put(uuid, config);
+        dirty.add(uuid);
+
+        if (closed) {
+            // Late writes after close() go straight to disk once the writer stopped,
+            // until then close() writes them itself
+            if (writer.isTerminated()) flushDirty();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(this::flushDirty, flushDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Evicts least recently used documents that have nothing left to write.
+     * Must be called while holding the lock.
+     */
+    private void trim() {
+        Iterator<Map.Entry<UUID, YamlConfiguration>> it = documents.entrySet().iterator();
+        while (documents.size() > cacheSize && it.hasNext()) {
+            UUID uuid = it.next().getKey();
+            if (!dirty.contains(uuid) && !writing.contains(uuid)) it.remove();
+        }
+    }
+
+    // ============================================================
+    // Writing
+    // ============================================================
+
+    /**
+     * Writes all dirty documents now and waits until they are on disk,
+     * including a write the background writer already started.
+     *
+     * @throws StorageException if a document could not be written, it stays dirty and is retried
+     */
+    @Override
+    public void flush() {
+        boolean written;
+        try {
+            written = writer.submit(this::flushDirty).get();
+        } catch (RejectedExecutionException e) {
+            // Closed, the writer stopped and late writes are serialized by the lock
+            synchronized (this) {
+                written = flushDirty();
+            }
+        } catch (ExecutionException e) {
+            throw new StorageException("Failed to write player files", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while writing player files", e);
+        }
+        if (!written) throw new StorageException("Failed to write player files", null);
+    }
+
+    /**
+     * Writes all dirty documents.
+     * Documents are serialized under the lock and written outside of it,
+     * so readers are not blocked by file I/O. Runs on the writer thread,
+     * or while holding the lock once the writer stopped.
+     *
+     * @return true if every document was written
+     */
+    private boolean flushDirty() {
+        boolean allWritten = true;
+        Map<UUID, String> batch = new LinkedHashMap<>();
+
+        synchronized (this) {
+            flushScheduled = false;
+            for (UUID uuid : dirty) {
+                batch.put(uuid, documents.get(uuid).saveToString());
+                writing.add(uuid);
+            }
+            dirty.clear();
+        }
+
+        for (Map.Entry<UUID, String> entry : batch.entrySet()) {
+            UUID uuid = entry.getKey();
+            boolean written = write(uuid, entry.getValue());
+            allWritten &= written;
+
+            synchronized (this) {
+                writing.remove(uuid);
+                // Keep the document for the next flush if the write failed
+                if (!written && dirty.add(uuid) && !flushScheduled && !closed) {
+                    flushScheduled = true;
+                    writer.schedule(this::flushDirty, flushDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        synchronized (this) {
+            trim();
+        }
+        return allWritten;
+    }
+
+    /**
+     * Writes a document to a temporary file and moves it over the player's file.
+     *
+     * @param uuid player's UUID
+     * @param data serialized document
+     * @return true if the file was written
+     */
+    private boolean write(UUID uuid, String data) {
+        return write(getPlayerFile(uuid).toPath(), data);
+    }
+
+    /**
+     * Writes data to a temporary file, forces it to disk and moves it over the target file,
+     * so the target holds either the old or the complete new contents after a power loss.
+     *
+     * @param target file to replace
+     * @param data   file contents
+     * @return true if the file was written
+     */
+    private boolean write(Path target, String data) {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
         try {
-            config.save(getPlayerFile(uuid));
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
         } catch (IOException e) {
             e.printStackTrace(); // log failure to save
+            return false;
+        }
+    }
+
+    /**
+     * Records a player name in its own small file, written right away.
+     * Names only change on first joins and renames, so they bypass the document cache.
+     * Writes lock the name folder, as two writes of one name share a temporary file.
+     */
+    @Override
+    public void saveName(String name, UUID uuid) {
+        Path file = nameFile(name);
+        if (file == null) return;
+        synchronized (nameFolder) {
+            if (!write(file, uuid.toString())) {
+                throw new StorageException("Failed to save the name of " + uuid, null);
+            }
+        }
+    }
+
+    @Override
+    public UUID lookupName(String name) {
+        Path file = nameFile(name);
+        if (file == null || !Files.exists(file)) return null;
+        try {
+            return UUID.fromString(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new StorageException("Failed to look up the player " + name, e);
+        }
+    }
+
+    /**
+     * Returns the file of a player name, or null if the name could leave the name folder.
+     */
+    private Path nameFile(String name) {
+        if (!NAME.matcher(name).matches()) return null;
+        return new File(nameFolder, name + ".txt").toPath();
+    }
+
+    /**
+     * Stops the background writer and writes every remaining dirty document.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+
+        writer.shutdown();
+        try {
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            flushDirty();
         }
     }
 
@@ -74,7 +335,7 @@ public class DatabaseYML implements DatabaseProvider {
      * @return number of upgrades
      */
     @Override
-    public int getUpgrades(UUID uuid) {
+    public synchronized int getUpgrades(UUID uuid) {
         return loadConfig(uuid).getInt("upgrades", 0);
     }
 
@@ -85,10 +346,35 @@ public class DatabaseYML implements DatabaseProvider {
      * @param upgrades new upgrade count
      */
     @Override
-    public void setUpgrades(UUID uuid, int upgrades) {
+    public synchronized void setUpgrades(UUID uuid, int upgrades) {
+        YamlConfiguration config = loadConfig(uuid);
+        config.set("upgrades", upgrades);
+        bumpVersion(config);
+        saveConfig(uuid, config);
+    }
+
+    /**
+     * Sets the number of upgrades if the version still matches.
+     * Atomic because all access to the documents is synchronized.
+     *
+     * @param uuid player's UUID
+     * @param upgrades new upgrade count
+     * @param expectedVersion version the new value was computed from
+     * @return true if written, false on a version conflict
+     */
+    @Override
+    public synchronized boolean setUpgradesIfVersion(UUID uuid, int upgrades, long expectedVersion) {
         YamlConfiguration config = loadConfig(uuid);
+        if (config.getLong("version", 0L) != expectedVersion) return false;
+
         config.set("upgrades", upgrades);
+        bumpVersion(config);
         saveConfig(uuid, config);
+        return true;
+    }
+
+    private static void bumpVersion(YamlConfiguration config) {
+        config.set("version", config.getLong("version", 0L) + 1);
     }
 
     /**
@@ -98,7 +384,7 @@ public class DatabaseYML implements DatabaseProvider {
      * @return calculated size (base 27 + upgrades * 9)
      */
     @Override
-    public int getSize(UUID uuid) {
+    public synchronized int getSize(UUID uuid) {
         int upgrades = getUpgrades(uuid);
         return 27 + (upgrades * 9);
     }
@@ -110,7 +396,7 @@ public class DatabaseYML implements DatabaseProvider {
      * @param size new chest size
      */
     @Override
-    public void setSize(UUID uuid, int size) {
+    public synchronized void setSize(UUID uuid, int size) {
         int upgrades = (size - 27) / 9;
         setUpgrades(uuid, Math.max(0, upgrades));
     }
@@ -122,7 +408,7 @@ public class DatabaseYML implements DatabaseProvider {
      * @param items array of ItemStack representing inventory contents
      */
     @Override
-    public void saveItems(UUID uuid, ItemStack[] items) {
+    public synchronized void saveItems(UUID uuid, ItemStack[] items) {
         YamlConfiguration config = loadConfig(uuid);
 
         for (int i = 0; i < items.length; i++) {
@@ -133,6 +419,28 @@ public class DatabaseYML implements DatabaseProvider {
             }
         }
 
+        bumpVersion(config);
+        saveConfig(uuid, config);
+    }
+
+    /**
+     * Updates only the changed slots in the player's YAML file.
+     *
+     * @param uuid player's UUID
+     * @param items array of ItemStack representing inventory contents
+     * @param slots indexes of the slots that changed
+     */
+    @Override
+    public synchronized void saveSlots(UUID uuid, ItemStack[] items, BitSet slots) {
+        if (slots.isEmpty()) return;
+
+        YamlConfiguration config = loadConfig(uuid);
+
+        for (int i = slots.nextSetBit(0); i >= 0 && i < items.length; i = slots.nextSetBit(i + 1)) {
+            config.set("items." + i, items[i]);
+        }
+
+        bumpVersion(config);
         saveConfig(uuid, config);
     }
 
@@ -144,7 +452,7 @@ public class DatabaseYML implements DatabaseProvider {
      * @return array of ItemStack containing loaded items
      */
     @Override
-    public ItemStack[] loadItems(UUID uuid, int size) {
+    public synchronized ItemStack[] loadItems(UUID uuid, int size) {
         ItemStack[] items = new ItemStack[size];
         YamlConfiguration config = loadConfig(uuid);
 
@@ -158,4 +466,29 @@ public class DatabaseYML implements DatabaseProvider {
 
         return items;
     }
+
+    /**
+     * Loads upgrades, items and version from a single read of the player's file.
+     *
+     * @param uuid player's UUID
+     * @return stored record, or an empty record if the file does not exist
+     */
+    @Override
+    public synchronized ChestRecord loadRecord(UUID uuid) {
+        YamlConfiguration config = loadConfig(uuid);
+
+        int upgrades = config.getInt("upgrades", 0);
+        int size = ChestRecord.sizeOf(upgrades);
+        ItemStack[] items = new ItemStack[size];
+
+        if (config.contains("items")) {
+            for (int i = 0; i < size; i++) {
+                if (config.contains("items." + i)) {
+                    items[i] = config.getItemStack("items." + i);
+                }
+            }
+        }
+
+        return new ChestRecord(uuid, upgrades, items, config.getLong("version", 0L));
+    }
 }
@@ -0,0 +1,62 @@
+package net.nightzy.echestplus.storage;
+
+/**
+ * MySQL / MariaDB flavour of SQL.
+ * Uses ON DUPLICATE KEY UPDATE upserts, BINARY(16) keys and MEDIUMBLOB contents.
+ */
+public class MySqlDialect implements SqlDialect {
+
+    @Override
+    public String name() {
+        return "MySQL";
+    }
+
+    @Override
+    public String uuidType() {
+        return "BINARY(16)";
+    }
+
+    @Override
+    public String blobType() {
+        // BLOB is capped at 64 KB, which a full chest of shulker boxes can exceed
+        return "MEDIUMBLOB";
+    }
+
+    @Override
+    public String tableOptions() {
+        return " ENGINE=InnoDB";
+    }
+
+    @Override
+    public String autoIncrementKey() {
+        return "BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY";
+    }
+
+    @Override
+    public String logTableOptions() {
+        return " ENGINE=InnoDB";
+    }
+
+    @Override
+    public String upsert(String table, String key, String... columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(SqlDialect.values(key, columns));
+        sql.append(" ON DUPLICATE KEY UPDATE ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sql.append(", ");
+            // VALUES() keeps compatibility with MariaDB and MySQL before 8.0.19
+            sql.append(columns[i]).append(" = VALUES(").append(columns[i]).append(")");
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public String insertIgnore(String table, String key, String... columns) {
+        return "INSERT IGNORE INTO " + table + SqlDialect.values(key, columns);
+    }
+
+    @Override
+    public boolean hasLegacyTable() {
+        // The old TEXT PRIMARY KEY table could never be created on MySQL
+        return false;
+    }
+}
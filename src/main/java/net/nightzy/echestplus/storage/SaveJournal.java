@@ -0,0 +1,390 @@
+package net.nightzy.echestplus.storage;
+
+import net.nightzy.echestplus.util.ItemSerializer;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal for chest snapshots waiting in the save queue.
+ *
+ * Every snapshot is appended with a sequence number and CRC32 shortly after it
+ * was queued, so it survives a JVM crash before the backend write. The journal
+ * is split into segments; a segment is deleted once every snapshot in it is
+ * confirmed by the backend. A newer snapshot of the same player does not replace
+ * an older one, as it may only cover the slots that changed since; the save
+ * queue confirms each sequence once a write covering its slots succeeded.
+ * On startup the newest snapshot of each player still in the journal is replayed
+ * into the provider.
+ *
+ * Appends only write to the operating system; a background thread forces the
+ * current segment to disk every sync interval, so the hot path never waits for fsync.
+ *
+ * Record layout: magic, body length, CRC32 of the body, then the body
+ * (sequence, uuid, chest size, serialized items).
+ */
+public class SaveJournal {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final int MAGIC = 0x45434a31; // "ECJ1"
+    private static final int RECORD_HEADER = 12;
+    private static final int BODY_HEADER = 8 + 16 + 4;
+    private static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+    private static final String SUFFIX = ".journal";
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final File folder;
+    private final Logger logger;
+    private final ScheduledExecutorService syncer;
+
+    private final List<Segment> segments = new ArrayList<>(); // Oldest first, the last one is appended to
+    private final TreeSet<Long> outstanding = new TreeSet<>(); // Unconfirmed sequences
+
+    private long nextSequence = 1;
+    private boolean unsynced = false;
+    private final CRC32 crc = new CRC32();
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * Opens the journal folder. Existing segments are kept until {@link #replay} is called.
+     *
+     * @param folder       folder holding the journal segments
+     * @param logger       logger for replay and write failures
+     * @param syncInterval milliseconds between forced syncs of the current segment
+     */
+    public SaveJournal(File folder, Logger logger, long syncInterval) {
+        this.folder = folder;
+        this.logger = logger;
+        if (!folder.exists()) folder.mkdirs();
+
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EChestPlus-Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1L, syncInterval);
+        syncer.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // ============================================================
+    // Replay
+    // ============================================================
+
+    /**
+     * Writes the newest journaled snapshot of each player into the provider
+     * and deletes the replayed segments once the provider has flushed them.
+     *
+     * Each player's chest is claimed before its snapshot is written. A chest
+     * another server claimed meanwhile was loaded there after the crash, so
+     * the journaled snapshot is out of date and skipped.
+     *
+     * A failed replay keeps the segments and throws, so the plugin does not
+     * start: saves confirmed meanwhile would otherwise be rolled back by the
+     * old snapshots when they are replayed on the next start.
+     *
+     * @param database provider to replay into
+     * @param claim    claims a player's chest, false if another server holds it
+     * @return number of chests replayed
+     * @throws StorageException if a segment cannot be read, a claim fails or the provider rejects a write
+     */
+    public synchronized int replay(DatabaseProvider database, Predicate<UUID> claim) {
+
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length == 0) return 0;
+        Arrays.sort(files, (a, b) -> Long.compare(firstSequence(a), firstSequence(b)));
+
+        // Newest snapshot per player, later records win
+        Map<UUID, ItemStack[]> snapshots = new LinkedHashMap<>();
+        for (File file : files) {
+            try {
+                readSegment(file, snapshots);
+            } catch (IOException e) {
+                throw new StorageException("Failed to read journal segment " + file.getName(), e);
+            }
+        }
+
+        int replayed = 0;
+        try {
+            for (Map.Entry<UUID, ItemStack[]> entry : snapshots.entrySet()) {
+                if (!claim.test(entry.getKey())) {
+                    logger.warning("Ender chest of " + entry.getKey() + " is claimed by another server, skipping its journaled snapshot.");
+                    continue;
+                }
+                database.saveItems(entry.getKey(), entry.getValue());
+                replayed++;
+            }
+            database.flush();
+        } catch (RuntimeException e) {
+            // Keep the segments, they are replayed again on the next start
+            throw new StorageException("Failed to replay the save journal, it is kept for the next start", e);
+        }
+
+        for (File file : files) {
+            if (!file.delete()) logger.warning("Failed to delete replayed journal segment " + file.getName());
+        }
+        return replayed;
+    }
+
+    /**
+     * Reads all intact records of a segment. A torn record ends the segment.
+     */
+    private void readSegment(File file, Map<UUID, ItemStack[]> snapshots) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+
+            while (true) {
+                header.clear();
+                if (readFully(channel, header) < RECORD_HEADER) return;
+                header.flip();
+
+                int magic = header.getInt();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (magic != MAGIC || length < BODY_HEADER || length > channel.size() - channel.position()) {
+                    logger.warning("Journal segment " + file.getName() + " ends with a torn record, ignoring the rest.");
+                    return;
+                }
+
+                ByteBuffer body = ByteBuffer.allocate(length);
+                readFully(channel, body);
+                body.flip();
+
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    logger.warning("Journal segment " + file.getName() + " has a damaged record, ignoring the rest.");
+                    return;
+                }
+
+                long sequence = body.getLong();
+                UUID uuid = new UUID(body.getLong(), body.getLong());
+                int size = body.getInt();
+                byte[] data = new byte[body.remaining()];
+                body.get(data);
+
+                try {
+                    snapshots.remove(uuid);
+                    snapshots.put(uuid, ItemSerializer.fromBytes(data, size));
+                } catch (IOException | ClassNotFoundException e) {
+                    logger.log(Level.SEVERE, "Failed to decode journaled chest of " + uuid, e);
+                }
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+        }
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    // ============================================================
+    // Appending
+    // ============================================================
+
+    /**
+     * Serializes a snapshot into a journal record body, without a sequence yet.
+     * Runs outside the journal lock, on the save queue's journal thread.
+     *
+     * @param uuid  owner of the chest
+     * @param items snapshot of the chest contents
+     * @return encoded body, or null if the snapshot could not be serialized
+     */
+    public byte[] encode(UUID uuid, ItemStack[] items) {
+        try {
+            byte[] data = ItemSerializer.toBytes(items);
+            return ByteBuffer.allocate(BODY_HEADER + data.length)
+                    .putLong(0L)
+                    .putLong(uuid.getMostSignificantBits())
+                    .putLong(uuid.getLeastSignificantBits())
+                    .putInt(items.length)
+                    .put(data)
+                    .array();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to journal ender chest of " + uuid, e);
+            return null;
+        }
+    }
+
+    /**
+     * Appends an encoded snapshot. It stays outstanding until {@link #confirm} is called for it.
+     *
+     * @param uuid owner of the chest
+     * @param body body from {@link #encode}
+     * @return sequence number of the record, or 0 if it could not be written
+     */
+    public synchronized long append(UUID uuid, byte[] body) {
+        if (body == null) return 0L;
+
+        long sequence = nextSequence++;
+        ByteBuffer.wrap(body).putLong(0, sequence);
+
+        crc.reset();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + body.length)
+                .putInt(MAGIC)
+                .putInt(body.length)
+                .putInt((int) crc.getValue())
+                .put(body);
+        record.flip();
+
+        try {
+            Segment segment = current(sequence);
+            while (record.hasRemaining()) segment.channel.write(record);
+            segment.size += RECORD_HEADER + body.length;
+            segment.lastSequence = sequence;
+            unsynced = true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to append to the save journal", e);
+            return 0L;
+        }
+
+        outstanding.add(sequence);
+        return sequence;
+    }
+
+    /**
+     * Returns the segment to append to, starting a new one when the current one is full.
+     */
+    private Segment current(long sequence) throws IOException {
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment != null && segment.size < SEGMENT_SIZE) return segment;
+
+        if (segment != null) {
+            segment.channel.force(false);
+            segment.channel.close();
+            segment.channel = null;
+        }
+
+        File file = new File(folder, String.format("%020d", sequence) + SUFFIX);
+        Segment next = new Segment(file, FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        segments.add(next);
+        return next;
+    }
+
+    // ============================================================
+    // Confirmation
+    // ============================================================
+
+    /**
+     * Marks a snapshot as stored by the backend and deletes segments that are no longer needed.
+     *
+     * @param sequence sequence returned by {@link #append}
+     */
+    public synchronized void confirm(long sequence) {
+        if (sequence <= 0) return;
+
+        outstanding.remove(sequence);
+
+        // Only closed segments older than every outstanding snapshot can go
+        long lowest = outstanding.isEmpty() ? Long.MAX_VALUE : outstanding.first();
+        while (segments.size() > 1 && segments.get(0).lastSequence < lowest) {
+            Segment segment = segments.remove(0);
+            if (!segment.file.delete()) logger.warning("Failed to delete journal segment " + segment.file.getName());
+        }
+    }
+
+    /**
+     * Forces the current segment to disk if anything was appended since the last sync.
+     */
+    private synchronized void sync() {
+        if (!unsynced || segments.isEmpty()) return;
+        try {
+            segments.get(segments.size() - 1).channel.force(false);
+            unsynced = false;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to sync the save journal", e);
+        }
+    }
+
+    /**
+     * Stops the sync thread and closes the journal.
+     * If every snapshot was confirmed the journal is deleted, otherwise it is kept for replay.
+     */
+    public void close() {
+        syncer.shutdown();
+        try {
+            syncer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            for (Segment segment : segments) {
+                try {
+                    if (segment.channel != null) {
+                        segment.channel.force(false);
+                        segment.channel.close();
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Failed to close journal segment " + segment.file.getName(), e);
+                }
+                if (outstanding.isEmpty()) segment.file.delete();
+            }
+
+            if (!outstanding.isEmpty()) {
+                logger.warning(outstanding.size() + " ender chests were not confirmed by storage, they will be replayed on the next start.");
+            }
+            segments.clear();
+        }
+    }
+
+    private static long firstSequence(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * One journal file.
+     */
+    private static final class Segment {
+
+        private final File file;
+        private FileChannel channel; // Open only for the segment being appended to
+        private long size;
+        private long lastSequence;
+
+        private Segment(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+}
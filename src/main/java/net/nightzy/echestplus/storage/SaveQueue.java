@@ -0,0 +1,671 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind queue for ender chest contents.
+ *
+ * Snapshots are handed over from the server thread and written to the
+ * DatabaseProvider by dedicated storage threads. Repeated saves for the same
+ * player are coalesced so only the latest snapshot is written, and a player is
+ * never written by two storage threads at once, which keeps writes ordered per player.
+ * Only the slots that changed are written; coalesced saves merge their changed slots.
+ * A storage thread takes several players at once and hands them to the
+ * provider as one batch. A failed write is queued again with its slots and
+ * retried with a growing delay, so a storage outage never drops changed slots.
+ *
+ * In scheduled mode saves are held back until {@link #flush()} is called, so
+ * everything that became dirty during one flush interval is written together
+ * (group commit). A full queue or shutdown releases the held saves early.
+ * Saves waiting for a retry do not count against the capacity, and a full queue
+ * only holds the server thread back briefly before taking the save anyway.
+ *
+ * With a journal, snapshots are serialized and appended by a journal thread,
+ * so the server thread never encodes them; only the newest unjournaled snapshot
+ * of a player is appended. A save keeps the sequences of all snapshots merged
+ * into it, including those of failed writes, and confirms them once the provider
+ * has stored and flushed it. A snapshot written before it was journaled is
+ * confirmed right after its append.
+ */
+public class SaveQueue {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5); // Shutdown progress log interval
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toNanos(1);        // Delay before the first retry
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toNanos(1);    // Cap of the doubling retry delay
+    private static final long MAX_SUBMIT_WAIT = TimeUnit.MILLISECONDS.toNanos(50); // Longest backpressure wait of a caller
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final DatabaseProvider database; // Storage provider written to by workers
+    private final SaveJournal journal;       // Write-ahead journal, null if disabled
+    private final Logger logger;             // Plugin logger for write failures
+    private final int capacity;              // Maximum number of players waiting to be written
+    private final int batchSize;             // Players written by one storage thread at once
+    private final boolean scheduled;         // Hold saves back until flush() is called
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition(); // Signalled when work becomes available
+    private final Condition notFull = lock.newCondition();  // Signalled when a pending slot frees up
+    private final Condition drained = lock.newCondition();  // Signalled when nothing is left to write
+
+    /**
+     * Pending saves in submission order.
+     * A newer snapshot for the same player replaces the older one in place.
+     */
+    private final LinkedHashMap<UUID, PendingSave> pending = new LinkedHashMap<>();
+    private int retrying = 0; // Pending saves that failed before, not counted against the capacity
+
+    /**
+     * Saves currently being written by a worker, keyed by player.
+     */
+    private final Map<UUID, PendingSave> inFlight = new HashMap<>();
+
+    /**
+     * Futures waiting for a player's saves to be written, see {@link #whenWritten}.
+     */
+    private final Map<UUID, List<CompletableFuture<Void>>> waiters = new HashMap<>();
+
+    /**
+     * Snapshots waiting for the journal thread, newest per player, in submission order.
+     */
+    private final LinkedHashMap<UUID, Unjournaled> unjournaled = new LinkedHashMap<>();
+    private final Condition journalable = lock.newCondition(); // Signalled when a snapshot awaits journaling
+    private long generations = 0; // Counter numbering submitted snapshots
+
+    private final List<Thread> workers = new ArrayList<>();
+    private final Thread journaler; // Journal thread, null without a journal
+    private boolean running = true;
+    private boolean flushRequested = false; // Scheduled mode: release held saves
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * Creates the queue and starts its storage threads.
+     *
+     * @param database provider the snapshots are written to
+     * @param logger   logger used to report failed writes
+     * @param capacity  maximum number of players with a pending save
+     * @param threads   number of storage threads
+     * @param batchSize maximum number of players written in one batch
+     * @param scheduled true to hold saves until {@link #flush()} is called
+     * @param journal   write-ahead journal, or null to disable journaling
+     */
+    public SaveQueue(DatabaseProvider database, Logger logger, int capacity, int threads,
+                     int batchSize, boolean scheduled, SaveJournal journal) {
+        this.database = database;
+        this.journal = journal;
+        this.logger = logger;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.scheduled = scheduled;
+
+        for (int i = 0; i < Math.max(1, threads); i++) {
+            Thread worker = new Thread(this::runWorker, "EChestPlus-Storage-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        if (journal != null) {
+            journaler = new Thread(this::runJournaler, "EChestPlus-Journal-Appender");
+            journaler.setDaemon(true);
+            journaler.start();
+        } else {
+            journaler = null;
+        }
+    }
+
+    // ============================================================
+    // Submission
+    // ============================================================
+
+    /**
+     * Queues a snapshot of a player's whole ender chest for writing.
+     *
+     * @param uuid  unique identifier of the player
+     * @param items snapshot of the chest contents, must not be modified afterwards
+     */
+    public void submit(UUID uuid, ItemStack[] items) {
+        BitSet all = new BitSet(items.length);
+        all.set(0, items.length);
+        submit(uuid, items, all);
+    }
+
+    /**
+     * Queues a snapshot of a player's ender chest for writing.
+     *
+     * If a save for the player is already pending, its snapshot is replaced
+     * and the changed slots of both saves are merged.
+     * When the queue is full the caller waits briefly for a storage thread to free
+     * a slot, then queues the save beyond the capacity; it never blocks for long.
+     *
+     * @param uuid  unique identifier of the player
+     * @param items snapshot of the chest contents, must not be modified afterwards
+     * @param slots indexes of the slots that changed since the last save
+     */
+    public void submit(UUID uuid, ItemStack[] items, BitSet slots) {
+
+        lock.lock();
+        try {
+            if (running) {
+                long generation = ++generations;
+                if (journal != null) {
+                    // Replaces an older snapshot still waiting, it keeps its place in line
+                    unjournaled.put(uuid, new Unjournaled(items, generation));
+                    journalable.signal();
+                }
+
+                PendingSave existing = pending.get(uuid);
+                if (existing != null) {
+                    // Coalesce: keep the queue position, replace the contents
+                    existing.items = items;
+                    existing.slots.or(slots);
+                    existing.generation = generation;
+                    return;
+                }
+
+                // Backpressure: give the writers a moment to catch up
+                if (isFull()) notEmpty.signalAll();
+                long remaining = MAX_SUBMIT_WAIT;
+                while (isFull() && running && remaining > 0) {
+                    try {
+                        remaining = notFull.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+
+                if (running) {
+                    pending.put(uuid, new PendingSave(items, (BitSet) slots.clone(), generation));
+                    notEmpty.signalAll();
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Queue is shut down, write through on the caller thread
+        database.saveSlots(uuid, items, slots);
+    }
+
+    /**
+     * Releases all held saves to the storage threads.
+     * Called by the flush timer in scheduled mode, has no effect otherwise.
+     */
+    public void flush() {
+
+        lock.lock();
+        try {
+            if (!pending.isEmpty()) {
+                flushRequested = true;
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the latest snapshot for a player that has not reached storage yet.
+     *
+     * @param uuid unique identifier of the player
+     * @return pending or in-flight snapshot, or null if storage is up to date
+     */
+    public ItemStack[] peek(UUID uuid) {
+
+        lock.lock();
+        try {
+            PendingSave save = pending.get(uuid);
+            if (save == null) save = inFlight.get(uuid);
+            return save != null ? save.items : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a future completed once a player has no save pending or in flight.
+     * Held saves are released, so the future does not wait for the next flush.
+     *
+     * @param uuid unique identifier of the player
+     * @return future completed by the storage thread that wrote the last save;
+     *         failed writes are retried, so the future waits until one succeeds
+     */
+    public CompletableFuture<Void> whenWritten(UUID uuid) {
+
+        lock.lock();
+        try {
+            if (!pending.containsKey(uuid) && !inFlight.containsKey(uuid)) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            waiters.computeIfAbsent(uuid, key -> new ArrayList<>()).add(future);
+            if (pending.containsKey(uuid)) {
+                flushRequested = true;
+                notEmpty.signalAll();
+            }
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of players waiting to be written, including in-flight writes.
+     */
+    public int size() {
+
+        lock.lock();
+        try {
+            return pending.size() + inFlight.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases all held saves and waits until nothing is left to write.
+     * The queue keeps accepting saves meanwhile, so under load it may time out.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return true if the queue was empty before the timeout
+     */
+    public boolean drain(long timeout, TimeUnit unit) {
+
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            if (!pending.isEmpty()) {
+                flushRequested = true;
+                notEmpty.signalAll();
+            }
+
+            while (!pending.isEmpty() || !inFlight.isEmpty()) {
+                if (remaining <= 0) return false;
+                remaining = drained.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ============================================================
+    // Shutdown
+    // ============================================================
+
+    /**
+     * Stops accepting queued work and waits for pending snapshots to be written.
+     * Logs the number of remaining players every few seconds while waiting.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return true if everything was written before the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            journalable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Thread> threads = new ArrayList<>(workers);
+        if (journaler != null) threads.add(journaler);
+        for (Thread worker : threads) {
+            while (worker.isAlive()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return size() == 0;
+
+                try {
+                    TimeUnit.NANOSECONDS.timedJoin(worker, Math.min(remaining, PROGRESS_INTERVAL));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return size() == 0;
+                }
+
+                if (worker.isAlive()) logger.info("Still saving " + size() + " ender chests...");
+            }
+        }
+
+        return size() == 0;
+    }
+
+    // ============================================================
+    // Worker
+    // ============================================================
+
+    /**
+     * Storage thread loop: takes the oldest snapshots whose players are not
+     * already being written and persists them as one batch.
+     */
+    private void runWorker() {
+
+        while (true) {
+            List<SlotUpdate> batch = new ArrayList<>();
+            List<PendingSave> saves = new ArrayList<>();
+
+            lock.lock();
+            try {
+                Map.Entry<UUID, PendingSave> next;
+                while ((next = nextReady()) == null) {
+                    if (!running && pending.isEmpty()) return;
+
+                    long retry = nextRetry();
+                    if (retry > 0) {
+                        notEmpty.awaitNanos(retry);
+                    } else {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                }
+
+                do {
+                    UUID uuid = next.getKey();
+                    PendingSave save = next.getValue();
+                    pending.remove(uuid);
+                    if (save.attempts > 0) retrying--;
+                    inFlight.put(uuid, save);
+                    batch.add(new SlotUpdate(uuid, save.items, save.slots));
+                    saves.add(save);
+                } while (batch.size() < batchSize && (next = nextReady()) != null);
+
+                if (pending.isEmpty()) flushRequested = false;
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                // Storage threads are only stopped through shutdown()
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean failed = false;
+            try {
+                database.saveSlots(batch);
+                if (journal != null) database.flush();
+            } catch (RuntimeException e) {
+                // Unconfirmed snapshots also stay in the journal and are replayed on the next start
+                logger.log(Level.SEVERE, "Failed to save " + batch.size() + " ender chests, retrying", e);
+                failed = true;
+            }
+
+            List<CompletableFuture<Void>> written = new ArrayList<>();
+            List<Long> confirmed = new ArrayList<>();
+            lock.lock();
+            try {
+                for (SlotUpdate update : batch) {
+                    PendingSave save = inFlight.remove(update.getUuid());
+                    if (failed) {
+                        requeue(update.getUuid(), save);
+                    } else {
+                        // Includes sequences the journal thread attached while the write ran
+                        confirmed.addAll(save.sequences);
+                    }
+
+                    // Waiters of players with a newer save keep waiting for that one
+                    if (!pending.containsKey(update.getUuid())) {
+                        List<CompletableFuture<Void>> waiting = waiters.remove(update.getUuid());
+                        if (waiting != null) written.addAll(waiting);
+                    }
+                }
+                // Newer snapshots for these players may have been waiting on us
+                notEmpty.signalAll();
+                if (pending.isEmpty() && inFlight.isEmpty()) drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            for (long sequence : confirmed) {
+                journal.confirm(sequence);
+            }
+
+            // Completed outside the lock, callbacks may call back into the queue
+            for (CompletableFuture<Void> future : written) {
+                future.complete(null);
+            }
+        }
+    }
+
+    // ============================================================
+    // Journal Thread
+    // ============================================================
+
+    /**
+     * Journal thread loop: serializes and appends waiting snapshots, then hands
+     * each sequence to the save that will write the snapshot's slots.
+     * Keeps going after shutdown until nothing is left to journal.
+     */
+    private void runJournaler() {
+
+        while (true) {
+            Map<UUID, Unjournaled> snapshots;
+
+            lock.lock();
+            try {
+                while (unjournaled.isEmpty()) {
+                    if (!running) return;
+                    journalable.awaitUninterruptibly();
+                }
+                snapshots = new LinkedHashMap<>(unjournaled);
+                unjournaled.clear();
+            } finally {
+                lock.unlock();
+            }
+
+            Map<UUID, Long> sequences = new LinkedHashMap<>();
+            for (Map.Entry<UUID, Unjournaled> entry : snapshots.entrySet()) {
+                long sequence = journal.append(entry.getKey(), journal.encode(entry.getKey(), entry.getValue().items));
+                if (sequence > 0) sequences.put(entry.getKey(), sequence);
+            }
+
+            List<Long> confirmed = new ArrayList<>();
+            lock.lock();
+            try {
+                for (Map.Entry<UUID, Long> entry : sequences.entrySet()) {
+                    PendingSave save = holder(entry.getKey(), snapshots.get(entry.getKey()).generation);
+                    if (save != null) {
+                        save.sequences.add(entry.getValue());
+                    } else {
+                        confirmed.add(entry.getValue());
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // Already written while it was being journaled
+            for (long sequence : confirmed) {
+                journal.confirm(sequence);
+            }
+        }
+    }
+
+    /**
+     * Returns the save whose write will cover a snapshot, or null if a successful
+     * write already did. Failed writes are merged into a pending save, so a
+     * snapshot is always held by the in-flight or pending save of a generation
+     * at least as new, until it is written.
+     * Must be called while holding the lock.
+     */
+    private PendingSave holder(UUID uuid, long generation) {
+
+        PendingSave save = inFlight.get(uuid);
+        if (save != null && save.generation >= generation) return save;
+
+        save = pending.get(uuid);
+        if (save != null && save.generation >= generation) return save;
+        return null;
+    }
+
+    /**
+     * Queues a failed save again. The holder was already rebased onto the snapshot,
+     * so its slots must reach storage with a later write: they are merged into a
+     * newer pending save of the player, or the save itself is retried after a delay.
+     * Must be called while holding the lock.
+     */
+    private void requeue(UUID uuid, PendingSave failed) {
+
+        failed.attempts++;
+        long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(failed.attempts - 1, 16));
+        long retryAt = System.nanoTime() + delay;
+
+        PendingSave newer = pending.get(uuid);
+        if (newer != null) {
+            // The newer snapshot holds the current contents of every slot
+            if (newer.attempts == 0) retrying++;
+            newer.slots.or(failed.slots);
+            newer.sequences.addAll(failed.sequences);
+            newer.generation = Math.max(newer.generation, failed.generation);
+            newer.attempts = Math.max(newer.attempts, failed.attempts);
+            newer.retryAt = retryAt;
+        } else {
+            failed.retryAt = retryAt;
+            pending.put(uuid, failed);
+            retrying++;
+        }
+    }
+
+    /**
+     * Returns whether the saves that never failed fill the queue's capacity.
+     * Must be called while holding the lock.
+     */
+    private boolean isFull() {
+        return pending.size() - retrying >= capacity;
+    }
+
+    /**
+     * Returns the nanoseconds until the earliest delayed retry is due,
+     * or 0 if no released save is waiting for a retry.
+     * Must be called while holding the lock.
+     */
+    private long nextRetry() {
+
+        boolean released = !scheduled || flushRequested || !running || isFull();
+        if (!released) return 0L;
+
+        long now = System.nanoTime();
+        long earliest = Long.MAX_VALUE;
+        for (Map.Entry<UUID, PendingSave> entry : pending.entrySet()) {
+            if (!inFlight.containsKey(entry.getKey()) && !entry.getValue().isDue(now)) {
+                earliest = Math.min(earliest, entry.getValue().retryAt - now);
+            }
+        }
+        return earliest == Long.MAX_VALUE ? 0L : earliest;
+    }
+
+    /**
+     * Returns the oldest pending entry whose player has no write in flight,
+     * or null if there is none or saves are currently held back.
+     * Must be called while holding the lock.
+     */
+    private Map.Entry<UUID, PendingSave> nextReady() {
+
+        boolean released = !scheduled || flushRequested || !running || isFull();
+        if (!released) return null;
+
+        long now = System.nanoTime();
+        Iterator<Map.Entry<UUID, PendingSave>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, PendingSave> entry = it.next();
+            if (!inFlight.containsKey(entry.getKey()) && entry.getValue().isDue(now)) {
+                return Map.entry(entry.getKey(), entry.getValue());
+            }
+        }
+        return null;
+    }
+
+    // ============================================================
+    // Snapshot Utilities
+    // ============================================================
+
+    /**
+     * Creates a detached copy of inventory contents so it can be handed to
+     * a storage thread while the live inventory keeps changing.
+     *
+     * @param contents live inventory contents
+     * @return deep copy of the contents
+     */
+    public static ItemStack[] snapshot(ItemStack[] contents) {
+
+        ItemStack[] copy = new ItemStack[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] != null) copy[i] = contents[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Latest snapshot of a player's chest and the slots changed since it was last written.
+     * Guarded by the queue lock; items and slots are read-only once in flight.
+     */
+    private static final class PendingSave {
+
+        private ItemStack[] items;
+        private final BitSet slots;
+        private final List<Long> sequences = new ArrayList<>(1); // Journal sequences of every merged snapshot
+        private long generation; // Newest snapshot merged into this save
+        private int attempts;    // Failed writes so far
+        private long retryAt;    // System.nanoTime() before which the save is not retried
+
+        private PendingSave(ItemStack[] items, BitSet slots, long generation) {
+            this.items = items;
+            this.slots = slots;
+            this.generation = generation;
+        }
+
+        /**
+         * Returns whether the save may be written now, i.e. it never failed or its retry delay passed.
+         */
+        private boolean isDue(long now) {
+            return attempts == 0 || retryAt - now <= 0;
+        }
+    }
+
+    /**
+     * Snapshot waiting for the journal thread.
+     */
+    private static final class Unjournaled {
+
+        private final ItemStack[] items;
+        private final long generation;
+
+        private Unjournaled(ItemStack[] items, long generation) {
+            this.items = items;
+            this.generation = generation;
+        }
+    }
+}
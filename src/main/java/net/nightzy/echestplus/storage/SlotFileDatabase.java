@@ -0,0 +1,642 @@
+package net.nightzy.echestplus.storage;
+
+import net.nightzy.echestplus.util.ItemSerializer;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded storage backend built on two memory-mapped files.
+ *
+ * chests.dat holds one slot per player. Slots come in size classes
+ * (512 bytes doubled up to 16 MB) so a chest that grows moves to a larger
+ * slot and its old slot is reused by the next record of that class.
+ * Every record carries its owner, a write sequence and a CRC32.
+ *
+ * chests.idx is an open-addressing hash table (linear probing) mapping a UUID
+ * to the offset of its slot. Records are written copy-on-write: the new slot is
+ * filled first and the index entry is switched afterwards. The old slot is only
+ * freed after {@link #flush()} forced the new record to disk, so it cannot be
+ * overwritten while it is the only durable copy. If the server stops without
+ * closing the files, the index is rebuilt from the data file on the next start,
+ * keeping the newest intact record of each player.
+ *
+ * A partial save replaces only its changed slots in the stored record.
+ * Records are decoded straight from the mapping.
+ *
+ * Access is synchronized; the data file is limited to 2 GB.
+ */
+public class SlotFileDatabase implements DatabaseProvider {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final int DATA_MAGIC = 0x45435344;   // "ECSD"
+    private static final int INDEX_MAGIC = 0x45434958;  // "ECIX"
+    private static final int RECORD_MAGIC = 0x45435231; // "ECR1"
+    private static final int FREE_MAGIC = 0x45434652;   // "ECFR"
+    private static final int FORMAT = 1;
+
+    // Data file header: magic, format, end of the last slot. Padded so slots stay 512 byte aligned
+    private static final int DATA_HEADER = 512;
+    private static final int DATA_END = 8;
+
+    // Slot header layout
+    private static final int SLOT_HEADER = 64;
+    private static final int S_MAGIC = 0;
+    private static final int S_CLASS = 4;
+    private static final int S_CRC = 8;
+    private static final int S_UPGRADES = 12; // CRC covers everything from here to the end of the payload
+    private static final int S_VERSION = 16;
+    private static final int S_SEQUENCE = 24;
+    private static final int S_MSB = 32;
+    private static final int S_LSB = 40;
+    private static final int S_LENGTH = 48;
+
+    private static final int MIN_SLOT = 512;
+    private static final int MAX_CLASS = 15; // 16 MB
+
+    // Index file header: magic, format, capacity, count, clean flag
+    private static final int INDEX_HEADER = 32;
+    private static final int I_CAPACITY = 8;
+    private static final int I_COUNT = 12;
+    private static final int I_CLEAN = 16;
+
+    // Index entry: uuid msb, uuid lsb, slot offset (0 = empty), reserved
+    private static final int ENTRY = 32;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final float MAX_LOAD = 0.7f;
+
+    private static final int INITIAL_DATA_SIZE = 1 << 20;
+
+    // Replaced slots kept before a write forces the files on its own
+    private static final int MAX_RETIRED = 1024;
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final Logger logger;
+
+    private final RandomAccessFile dataFile;
+    private final FileChannel dataChannel;
+    private MappedByteBuffer data;
+
+    private final RandomAccessFile indexFile;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer index;
+
+    private int capacity; // Index slots, always a power of two
+    private int count;    // Used index slots
+    private int end;      // End of the last data slot
+    private long sequence; // Next write sequence
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Integer>[] freeSlots = new ArrayDeque[MAX_CLASS + 1]; // Free slot offsets per class
+    private final List<Integer> retired = new ArrayList<>(); // Replaced slots, freed after the next force
+
+    private final CRC32 crc = new CRC32();
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * Opens or creates the slot files in the given folder.
+     *
+     * @param folder folder holding chests.dat and chests.idx
+     * @param logger logger for recovery messages
+     * @throws IOException if the files cannot be opened or are not slot files
+     */
+    public SlotFileDatabase(File folder, Logger logger) throws IOException {
+        this.logger = logger;
+        for (int i = 0; i <= MAX_CLASS; i++) freeSlots[i] = new ArrayDeque<>();
+
+        if (!folder.exists()) folder.mkdirs();
+
+        dataFile = new RandomAccessFile(new File(folder, "chests.dat"), "rw");
+        dataChannel = dataFile.getChannel();
+        indexFile = new RandomAccessFile(new File(folder, "chests.idx"), "rw");
+        indexChannel = indexFile.getChannel();
+
+        openData();
+        boolean clean = openIndex();
+        scan(clean);
+
+        // Until close() marks it clean again, a restart rebuilds the index
+        index.putInt(I_CLEAN, 0);
+        index.force();
+    }
+
+    /**
+     * Maps the data file, writing a fresh header if it is new.
+     */
+    private void openData() throws IOException {
+        boolean fresh = dataFile.length() < DATA_HEADER;
+        if (fresh) dataFile.setLength(INITIAL_DATA_SIZE);
+
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, dataFile.length());
+
+        if (fresh) {
+            data.putInt(0, DATA_MAGIC);
+            data.putInt(4, FORMAT);
+            data.putLong(DATA_END, DATA_HEADER);
+        } else if (data.getInt(0) != DATA_MAGIC || data.getInt(4) != FORMAT) {
+            throw new IOException("chests.dat is not an EChestPlus slot file");
+        }
+
+        long storedEnd = data.getLong(DATA_END);
+        end = (int) Math.max(DATA_HEADER, Math.min(storedEnd, data.capacity()));
+        end -= (end - DATA_HEADER) % MIN_SLOT;
+    }
+
+    /**
+     * Maps the index file.
+     *
+     * @return true if the index was closed cleanly and can be trusted
+     */
+    private boolean openIndex() throws IOException {
+        if (indexFile.length() >= INDEX_HEADER) {
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexFile.length());
+            int storedCapacity = index.getInt(I_CAPACITY);
+
+            if (index.getInt(0) == INDEX_MAGIC && index.getInt(4) == FORMAT
+                    && Integer.bitCount(storedCapacity) == 1
+                    && indexFile.length() >= INDEX_HEADER + (long) storedCapacity * ENTRY) {
+                capacity = storedCapacity;
+                count = index.getInt(I_COUNT);
+                return index.getInt(I_CLEAN) == 1;
+            }
+        }
+
+        resizeIndex(INITIAL_CAPACITY);
+        return false;
+    }
+
+    /**
+     * Walks all data slots, collecting free slots and the highest write sequence.
+     * If the index cannot be trusted it is rebuilt from the newest intact record of each player.
+     */
+    private void scan(boolean trustIndex) throws IOException {
+        Set<Integer> referenced = new HashSet<>();
+        if (trustIndex) {
+            for (int i = 0; i < capacity; i++) {
+                long offset = index.getLong(entry(i) + 16);
+                if (offset != 0) referenced.add((int) offset);
+            }
+        } else if (end > DATA_HEADER) {
+            logger.warning("Slot file index was not closed cleanly, rebuilding it from chests.dat.");
+        }
+
+        Map<UUID, Integer> newest = new HashMap<>();
+        int pos = DATA_HEADER;
+        while (pos < end) {
+            int magic = data.getInt(pos + S_MAGIC);
+            int sizeClass = data.getInt(pos + S_CLASS);
+
+            // Torn or garbage slot header: reclaim it in minimum-size pieces
+            if ((magic != RECORD_MAGIC && magic != FREE_MAGIC)
+                    || sizeClass < 0 || sizeClass > MAX_CLASS || pos + slotSize(sizeClass) > end) {
+                release(pos, 0);
+                pos += MIN_SLOT;
+                continue;
+            }
+
+            if (magic == RECORD_MAGIC) {
+                sequence = Math.max(sequence, data.getLong(pos + S_SEQUENCE) + 1);
+
+                if (trustIndex) {
+                    if (!referenced.contains(pos)) release(pos, sizeClass);
+                } else if (!checksumValid(pos)) {
+                    release(pos, sizeClass);
+                } else {
+                    UUID uuid = new UUID(data.getLong(pos + S_MSB), data.getLong(pos + S_LSB));
+                    Integer previous = newest.get(uuid);
+                    if (previous == null || data.getLong(previous + S_SEQUENCE) < data.getLong(pos + S_SEQUENCE)) {
+                        newest.put(uuid, pos);
+                        if (previous != null) release(previous, data.getInt(previous + S_CLASS));
+                    } else {
+                        release(pos, sizeClass);
+                    }
+                }
+            } else {
+                freeSlots[sizeClass].push(pos);
+            }
+
+            pos += slotSize(sizeClass);
+        }
+
+        if (!trustIndex) {
+            int needed = INITIAL_CAPACITY;
+            while (newest.size() > needed * MAX_LOAD) needed <<= 1;
+            resizeIndex(needed);
+            for (Map.Entry<UUID, Integer> entry : newest.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // ============================================================
+    // DatabaseProvider
+    // ============================================================
+
+    @Override
+    public synchronized int getUpgrades(UUID uuid) {
+        int offset = find(uuid);
+        return offset < 0 ? 0 : data.getInt(offset + S_UPGRADES);
+    }
+
+    @Override
+    public synchronized void setUpgrades(UUID uuid, int upgrades) {
+        int offset = find(uuid);
+        long version = offset < 0 ? 0L : data.getLong(offset + S_VERSION);
+        write(uuid, upgrades, version + 1, offset < 0 ? ByteBuffer.allocate(0) : payload(offset));
+    }
+
+    @Override
+    public synchronized boolean setUpgradesIfVersion(UUID uuid, int upgrades, long expectedVersion) {
+        int offset = find(uuid);
+        long version = offset < 0 ? 0L : data.getLong(offset + S_VERSION);
+        if (version != expectedVersion) return false;
+
+        write(uuid, upgrades, version + 1, offset < 0 ? ByteBuffer.allocate(0) : payload(offset));
+        return true;
+    }
+
+    @Override
+    public synchronized int getSize(UUID uuid) {
+        return ChestRecord.sizeOf(getUpgrades(uuid));
+    }
+
+    @Override
+    public synchronized void setSize(UUID uuid, int size) {
+        setUpgrades(uuid, ChestRecord.upgradesOf(size));
+    }
+
+    @Override
+    public synchronized void saveItems(UUID uuid, ItemStack[] items) {
+        int offset = find(uuid);
+        int upgrades = offset < 0 ? 0 : data.getInt(offset + S_UPGRADES);
+        long version = offset < 0 ? 0L : data.getLong(offset + S_VERSION);
+
+        try {
+            write(uuid, upgrades, version + 1, ByteBuffer.wrap(ItemSerializer.toBytes(items)));
+        } catch (IOException e) {
+            throw new StorageException("Failed to serialize ender chest of " + uuid, e);
+        }
+    }
+
+    /**
+     * Replaces the changed slots in the stored record and keeps the others as stored.
+     *
+     * @throws StorageException if the stored record is damaged, so it is not overwritten with a partial chest
+     */
+    @Override
+    public synchronized void saveSlots(UUID uuid, ItemStack[] items, BitSet slots) {
+        int offset = find(uuid);
+        if (offset < 0 || slots.nextClearBit(0) >= items.length) {
+            saveItems(uuid, items);
+            return;
+        }
+
+        ItemStack[] merged = readItems(uuid, offset, items.length);
+        for (int slot = slots.nextSetBit(0); slot >= 0 && slot < items.length; slot = slots.nextSetBit(slot + 1)) {
+            merged[slot] = items[slot];
+        }
+        saveItems(uuid, merged);
+    }
+
+    @Override
+    public synchronized ItemStack[] loadItems(UUID uuid, int size) {
+        int offset = find(uuid);
+        return offset < 0 ? new ItemStack[size] : readItems(uuid, offset, size);
+    }
+
+    @Override
+    public synchronized ChestRecord loadRecord(UUID uuid) {
+        int offset = find(uuid);
+        if (offset < 0) return ChestRecord.empty(uuid);
+
+        int upgrades = data.getInt(offset + S_UPGRADES);
+        ItemStack[] items = readItems(uuid, offset, ChestRecord.sizeOf(upgrades));
+        return new ChestRecord(uuid, upgrades, items, data.getLong(offset + S_VERSION));
+    }
+
+    /**
+     * Forces both mappings to disk, then frees the slots replaced since the last force.
+     *
+     * @throws StorageException if the files could not be forced
+     */
+    @Override
+    public synchronized void flush() {
+        try {
+            force();
+        } catch (UncheckedIOException e) {
+            throw new StorageException("Failed to force the slot files to disk", e);
+        }
+    }
+
+    /**
+     * Forces both mappings to disk and frees the retired slots, whose newer records are durable now.
+     * Must be called while holding the lock.
+     */
+    private void force() {
+        data.force();
+        index.force();
+        for (int previous : retired) {
+            release(previous, data.getInt(previous + S_CLASS));
+        }
+        retired.clear();
+    }
+
+    /**
+     * Flushes both mappings to disk and marks the index as cleanly closed.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            force();
+            index.putInt(I_CLEAN, 1);
+            index.force();
+            dataChannel.close();
+            indexChannel.close();
+            dataFile.close();
+            indexFile.close();
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ============================================================
+    // Records
+    // ============================================================
+
+    /**
+     * Decodes the items of a record. A damaged record is never answered with an
+     * empty chest, the next full save would overwrite it; its offset is logged
+     * so it can be recovered from chests.dat by hand.
+     *
+     * @throws StorageException if the record fails its checksum or its items cannot be decoded
+     */
+    private ItemStack[] readItems(UUID uuid, int offset, int size) {
+        try {
+            if (!checksumValid(offset)) throw new IOException("Record failed its checksum");
+            return decode(offset, size);
+        } catch (IOException | ClassNotFoundException e) {
+            logger.severe("Ender chest record of " + uuid + " at offset " + offset + " of chests.dat is damaged.");
+            throw new StorageException("Failed to read ender chest of " + uuid, e);
+        }
+    }
+
+    /**
+     * Decodes the items of a checked record straight from the mapping.
+     */
+    private ItemStack[] decode(int offset, int size) throws IOException, ClassNotFoundException {
+        ByteBuffer payload = payload(offset);
+        return payload.hasRemaining() ? ItemSerializer.fromBytes(payload, size) : new ItemStack[size];
+    }
+
+    /**
+     * Returns a view of the serialized items of a record inside the mapping.
+     * Only valid until the slot is freed.
+     */
+    private ByteBuffer payload(int offset) {
+        return data.slice(offset + SLOT_HEADER, data.getInt(offset + S_LENGTH));
+    }
+
+    /**
+     * Writes a record into a fresh slot and switches the index to it.
+     * The old slot is freed after the next force, see {@link #force()}.
+     *
+     * @param payload serialized items between position and limit, may be a view of the old slot
+     * @throws StorageException if the record does not fit or the file cannot grow
+     */
+    private void write(UUID uuid, int upgrades, long version, ByteBuffer payload) {
+        int length = payload.remaining();
+        int sizeClass = classFor(SLOT_HEADER + length);
+        if (sizeClass < 0) {
+            throw new StorageException("Ender chest of " + uuid + " is too large for the slot file ("
+                    + length + " bytes)", null);
+        }
+
+        int offset;
+        try {
+            offset = allocate(sizeClass);
+        } catch (IOException e) {
+            throw new StorageException("Failed to allocate a slot for " + uuid, e);
+        }
+
+        data.putInt(offset + S_UPGRADES, upgrades);
+        data.putLong(offset + S_VERSION, version);
+        data.putLong(offset + S_SEQUENCE, sequence++);
+        data.putLong(offset + S_MSB, uuid.getMostSignificantBits());
+        data.putLong(offset + S_LSB, uuid.getLeastSignificantBits());
+        data.putInt(offset + S_LENGTH, length);
+        data.put(offset + SLOT_HEADER, payload, payload.position(), length);
+        data.putInt(offset + S_CRC, checksum(offset));
+        data.putInt(offset + S_MAGIC, RECORD_MAGIC); // Published last
+
+        int previous = put(uuid, offset);
+        if (previous > 0) {
+            retired.add(previous);
+            // Without regular flushes, e.g. with the journal disabled, force now and then
+            if (retired.size() >= MAX_RETIRED) force();
+        }
+    }
+
+    private boolean checksumValid(int offset) {
+        int length = data.getInt(offset + S_LENGTH);
+        int sizeClass = data.getInt(offset + S_CLASS);
+        if (length < 0 || SLOT_HEADER + (long) length > slotSize(sizeClass)) return false;
+        return data.getInt(offset + S_CRC) == checksum(offset);
+    }
+
+    private int checksum(int offset) {
+        int length = SLOT_HEADER - S_UPGRADES + data.getInt(offset + S_LENGTH);
+        crc.reset();
+        crc.update(data.slice(offset + S_UPGRADES, length));
+        return (int) crc.getValue();
+    }
+
+    // ============================================================
+    // Slot Allocation
+    // ============================================================
+
+    private static int slotSize(int sizeClass) {
+        return MIN_SLOT << sizeClass;
+    }
+
+    /**
+     * Returns the smallest size class holding the given number of bytes, or -1 if none does.
+     */
+    private static int classFor(int bytes) {
+        for (int sizeClass = 0; sizeClass <= MAX_CLASS; sizeClass++) {
+            if (bytes <= slotSize(sizeClass)) return sizeClass;
+        }
+        return -1;
+    }
+
+    /**
+     * Takes a free slot of the class, or appends a new one to the data file.
+     */
+    private int allocate(int sizeClass) throws IOException {
+        Integer reused = freeSlots[sizeClass].poll();
+        if (reused != null) return reused;
+
+        int offset = end;
+        long newEnd = (long) offset + slotSize(sizeClass);
+        if (newEnd > Integer.MAX_VALUE) throw new IOException("Slot file is full");
+
+        if (newEnd > data.capacity()) {
+            long newSize = Math.min(Integer.MAX_VALUE, Math.max(newEnd, (long) data.capacity() * 2));
+            dataFile.setLength(newSize);
+            data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+        }
+
+        // Claim the slot before moving the end so a scan never sees an unclaimed slot
+        data.putInt(offset + S_MAGIC, FREE_MAGIC);
+        data.putInt(offset + S_CLASS, sizeClass);
+        end = (int) newEnd;
+        data.putLong(DATA_END, end);
+        return offset;
+    }
+
+    /**
+     * Marks a slot as free and makes it available for reuse.
+     */
+    private void release(int offset, int sizeClass) {
+        data.putInt(offset + S_MAGIC, FREE_MAGIC);
+        data.putInt(offset + S_CLASS, sizeClass);
+        freeSlots[sizeClass].push(offset);
+    }
+
+    // ============================================================
+    // Index
+    // ============================================================
+
+    private static int entry(int slot) {
+        return INDEX_HEADER + slot * ENTRY;
+    }
+
+    private int home(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & (capacity - 1);
+    }
+
+    /**
+     * Returns the slot offset of a player, or -1 if the player has no record.
+     */
+    private int find(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+
+        for (int i = home(msb, lsb), probes = 0; probes < capacity; i = (i + 1) & (capacity - 1), probes++) {
+            int e = entry(i);
+            long offset = index.getLong(e + 16);
+            if (offset == 0) return -1;
+            if (index.getLong(e) == msb && index.getLong(e + 8) == lsb) return (int) offset;
+        }
+        return -1;
+    }
+
+    /**
+     * Points a player's index entry at a slot, inserting the entry if needed.
+     *
+     * @return previous slot offset, or 0 if the player had no entry
+     */
+    private int put(UUID uuid, int offset) {
+        if (count + 1 > capacity * MAX_LOAD) growIndex();
+
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+
+        for (int i = home(msb, lsb); ; i = (i + 1) & (capacity - 1)) {
+            int e = entry(i);
+            long previous = index.getLong(e + 16);
+
+            if (previous == 0) {
+                index.putLong(e, msb);
+                index.putLong(e + 8, lsb);
+                index.putLong(e + 16, offset);
+                index.putInt(I_COUNT, ++count);
+                return 0;
+            }
+            if (index.getLong(e) == msb && index.getLong(e + 8) == lsb) {
+                index.putLong(e + 16, offset);
+                return (int) previous;
+            }
+        }
+    }
+
+    /**
+     * Doubles the index capacity and reinserts every entry.
+     */
+    private void growIndex() {
+        long[] msbs = new long[count];
+        long[] lsbs = new long[count];
+        int[] offsets = new int[count];
+
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            int e = entry(i);
+            long offset = index.getLong(e + 16);
+            if (offset == 0) continue;
+            msbs[n] = index.getLong(e);
+            lsbs[n] = index.getLong(e + 8);
+            offsets[n++] = (int) offset;
+        }
+
+        try {
+            resizeIndex(capacity * 2);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to grow slot file index", e);
+        }
+
+        for (int i = 0; i < n; i++) {
+            put(new UUID(msbs[i], lsbs[i]), offsets[i]);
+        }
+    }
+
+    /**
+     * Remaps the index file with the given capacity and clears all entries.
+     */
+    private void resizeIndex(int newCapacity) throws IOException {
+        long size = INDEX_HEADER + (long) newCapacity * ENTRY;
+        indexFile.setLength(size);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        byte[] zeros = new byte[ENTRY * 256];
+        for (int pos = INDEX_HEADER; pos < size; pos += zeros.length) {
+            index.put(pos, zeros, 0, (int) Math.min(zeros.length, size - pos));
+        }
+
+        capacity = newCapacity;
+        count = 0;
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, FORMAT);
+        index.putInt(I_CAPACITY, capacity);
+        index.putInt(I_COUNT, 0);
+        index.putInt(I_CLEAN, 0);
+    }
+}
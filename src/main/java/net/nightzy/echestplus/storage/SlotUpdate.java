@@ -0,0 +1,54 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.UUID;
+
+/**
+ * Pending write of a player's ender chest, handed from the save queue to a provider.
+ * Only the listed slots need to be written.
+ */
+public final class SlotUpdate {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final UUID uuid;         // Owner of the chest
+    private final ItemStack[] items; // Snapshot of the whole chest
+    private final BitSet slots;      // Slots that changed
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    public SlotUpdate(UUID uuid, ItemStack[] items, BitSet slots) {
+        this.uuid = uuid;
+        this.items = items;
+        this.slots = slots;
+    }
+
+    // ============================================================
+    // Accessors
+    // ============================================================
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public ItemStack[] getItems() {
+        return items;
+    }
+
+    public BitSet getSlots() {
+        return slots;
+    }
+
+    /**
+     * Returns whether every slot of the chest is written.
+     */
+    public boolean isFull() {
+        return slots.cardinality() >= items.length;
+    }
+}
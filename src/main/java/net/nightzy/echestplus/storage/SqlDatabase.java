@@ -5,41 +5,194 @@ import org.bukkit.inventory.ItemStack;
 
 import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
  * SQL-based implementation of DatabaseProvider.
  * Stores player upgrades and ender chest contents using a JDBC database.
+ * Connections are borrowed from a pool, so the provider is safe to use
+ * from several storage threads at once. Database-specific SQL comes from the dialect.
+ *
+ * Chest contents are stored one row per occupied slot, so a save only touches
+ * the slots that changed. Chests written by older versions keep their whole-chest
+ * blob until their next save, which moves them to the slot table.
  */
 public class SqlDatabase implements DatabaseProvider {
 
-    // JDBC connection to the database
-    private final Connection connection;
+    // Table holding one row per player
+    private static final String TABLE = "echestplus_chests";
+
+    // Table holding one row per occupied chest slot
+    private static final String SLOT_TABLE = "echestplus_slots";
+
+    // Table holding the server that currently owns each chest
+    private static final String LEASE_TABLE = "echestplus_leases";
+
+    // Table mapping lower case player names to UUIDs
+    private static final String NAME_TABLE = "echestplus_names";
+
+    // Change feed read by other servers sharing the database
+    private static final String CHANGE_TABLE = "echestplus_changes";
+
+    // Table created by versions that stored UUIDs as text
+    private static final String LEGACY_TABLE = "players";
+
+    // Maximum number of UUIDs bound into a single IN (...) lookup
+    private static final int BATCH_CHUNK = 100;
+
+    // Pool of JDBC connections to the database
+    private final ConnectionPool pool;
+
+    // Database-specific SQL
+    private final SqlDialect dialect;
+
+    // Prebuilt upsert statements
+    private final String upsertRecordSql;
+    private final String insertChestSql;
+    private final String upsertSlotSql;
+    private final String insertLeaseSql;
+    private final String upsertNameSql;
 
     /**
-     * Initializes the SQL database connection and ensures the players table exists.
+     * Initializes the SQL database and ensures the chest table exists.
      *
-     * @param jdbcUri JDBC connection string
-     * @throws SQLException if connection or table creation fails
+     * @param pool    connection pool for the database
+     * @param dialect SQL dialect of the database
+     * @throws SQLException if table creation or migration fails
      */
-    public SqlDatabase(String jdbcUri) throws SQLException {
-        this.connection = DriverManager.getConnection(jdbcUri);
+    public SqlDatabase(ConnectionPool pool, SqlDialect dialect) throws SQLException {
+        this.pool = pool;
+        this.dialect = dialect;
+        this.upsertRecordSql = dialect.upsert(TABLE, "uuid", "upgrades", "items", "version");
+        this.insertChestSql = dialect.insertIgnore(TABLE, "uuid");
+        this.upsertSlotSql = dialect.upsert(SLOT_TABLE, "uuid, slot", "item");
+        this.insertLeaseSql = dialect.insertIgnore(LEASE_TABLE, "uuid", "server", "expires_at");
+        this.upsertNameSql = dialect.upsert(NAME_TABLE, "name", "uuid");
         init();
     }
 
     /**
-     * Creates the players table if it does not exist.
+     * Creates the chest, slot, name, lease and change tables if they do not exist and migrates the legacy table.
      *
-     * Columns:
-     * uuid    - primary key for player
+     * Chest columns:
+     * uuid     - primary key for player, 16 byte binary UUID
      * upgrades - number of upgrades
-     * items   - serialized ItemStack array as BLOB
+     * items    - whole-chest blob of older versions, NULL once the chest uses slot rows
+     * version  - stored revision of the record
+     *
+     * Slot columns:
+     * uuid - owner of the slot
+     * slot - slot index
+     * item - serialized ItemStack
+     *
+     * Name columns:
+     * name - player name in lower case
+     * uuid - player that last joined with the name
+     *
+     * Lease columns:
+     * uuid       - owner of the chest
+     * server     - name of the server holding the chest
+     * expires_at - epoch milliseconds after which other servers may take the chest
+     *
+     * Change columns:
+     * id         - position in the feed
+     * uuid       - owner of the changed chest
+     * version    - stored version of the chest after the change
+     * server     - name of the server that made the change
+     * created_at - epoch milliseconds, used to prune old entries
      *
      * @throws SQLException if table creation fails
      */
     private void init() throws SQLException {
-        try (Statement s = connection.createStatement()) {
-            s.executeUpdate("CREATE TABLE IF NOT EXISTS players (uuid TEXT PRIMARY KEY, upgrades INTEGER, items BLOB)");
+        try (ConnectionPool.PooledConnection c = pool.borrow();
+             Statement s = c.connection().createStatement()) {
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                    + "uuid " + dialect.uuidType() + " NOT NULL PRIMARY KEY, "
+                    + "upgrades INTEGER NOT NULL DEFAULT 0, "
+                    + "items " + dialect.blobType() + ", "
+                    + "version BIGINT NOT NULL DEFAULT 0)"
+                    + dialect.tableOptions());
+
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS " + SLOT_TABLE + " ("
+                    + "uuid " + dialect.uuidType() + " NOT NULL, "
+                    + "slot SMALLINT NOT NULL, "
+                    + "item " + dialect.blobType() + " NOT NULL, "
+                    + "PRIMARY KEY (uuid, slot))"
+                    + dialect.tableOptions());
+
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS " + NAME_TABLE + " ("
+                    + "name VARCHAR(32) NOT NULL PRIMARY KEY, "
+                    + "uuid " + dialect.uuidType() + " NOT NULL)"
+                    + dialect.tableOptions());
+
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS " + LEASE_TABLE + " ("
+                    + "uuid " + dialect.uuidType() + " NOT NULL PRIMARY KEY, "
+                    + "server VARCHAR(64) NOT NULL, "
+                    + "expires_at BIGINT NOT NULL)"
+                    + dialect.tableOptions());
+
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS " + CHANGE_TABLE + " ("
+                    + "id " + dialect.autoIncrementKey() + ", "
+                    + "uuid " + dialect.uuidType() + " NOT NULL, "
+                    + "version BIGINT NOT NULL, "
+                    + "server VARCHAR(64) NOT NULL, "
+                    + "created_at BIGINT NOT NULL)"
+                    + dialect.logTableOptions());
+
+            if (dialect.hasLegacyTable()) {
+                migrateLegacyTable(c.connection());
+            }
+        }
+    }
+
+    /**
+     * Copies rows from the legacy text-keyed players table into the chest table
+     * and renames the legacy table so the migration runs only once.
+     */
+    private void migrateLegacyTable(Connection connection) throws SQLException {
+        DatabaseMetaData meta = connection.getMetaData();
+        try (ResultSet tables = meta.getTables(null, null, LEGACY_TABLE, null)) {
+            if (!tables.next()) return;
+        }
+
+        boolean hasVersion;
+        try (ResultSet columns = meta.getColumns(null, null, LEGACY_TABLE, "version")) {
+            hasVersion = columns.next();
+        }
+
+        connection.setAutoCommit(false);
+        try (Statement select = connection.createStatement();
+             ResultSet rs = select.executeQuery("SELECT uuid, upgrades, items"
+                     + (hasVersion ? ", version" : "") + " FROM " + LEGACY_TABLE);
+             PreparedStatement insert = connection.prepareStatement(upsertRecordSql)) {
+
+            while (rs.next()) {
+                SqlDialect.setUuid(insert, 1, UUID.fromString(rs.getString("uuid")));
+                insert.setInt(2, rs.getInt("upgrades"));
+                insert.setBytes(3, rs.getBytes("items"));
+                insert.setLong(4, hasVersion ? rs.getLong("version") : 0L);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+
+            try (Statement rename = connection.createStatement()) {
+                rename.executeUpdate("ALTER TABLE " + LEGACY_TABLE + " RENAME TO " + LEGACY_TABLE + "_migrated");
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
         }
     }
 
@@ -47,43 +200,89 @@ public class SqlDatabase implements DatabaseProvider {
      * Returns the number of upgrades a player has stored in the database.
      *
      * @param uuid player's UUID
-     * @return upgrades count
+     * @return upgrades count, 0 if the player has no chest yet
+     * @throws StorageException if the database could not be read
      */
     @Override
     public int getUpgrades(UUID uuid) {
-        try (PreparedStatement ps = connection.prepareStatement(
-                "SELECT upgrades FROM players WHERE uuid = ?")) {
-            ps.setString(1, uuid.toString());
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("SELECT upgrades FROM " + TABLE + " WHERE uuid = ?");
+            SqlDialect.setUuid(ps, 1, uuid);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return rs.getInt("upgrades");
+                return rs.next() ? rs.getInt("upgrades") : 0;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new StorageException("Failed to load upgrades of " + uuid, e);
         }
-        return 0;
     }
 
     /**
      * Sets the number of upgrades for a player in the database.
-     * Inserts new record if missing, otherwise updates existing.
+     * Inserts new record if missing, otherwise updates existing, in one transaction.
+     * The record version is incremented.
      *
      * @param uuid player's UUID
      * @param upgrades number of upgrades
+     * @throws StorageException if the transaction failed, nothing is stored then
      */
     @Override
     public void setUpgrades(UUID uuid, int upgrades) {
-        try (PreparedStatement ps = connection.prepareStatement(
-                "INSERT INTO players(uuid, upgrades) VALUES(?, ?) " +
-                        "ON CONFLICT(uuid) DO UPDATE SET upgrades = ?")) {
-            ps.setString(1, uuid.toString());
-            ps.setInt(2, upgrades);
-            ps.setInt(3, upgrades);
-            ps.executeUpdate();
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            Connection connection = c.connection();
+            connection.setAutoCommit(false);
+            try {
+                insertChest(c, uuid);
+
+                PreparedStatement ps = c.prepare("UPDATE " + TABLE + " SET upgrades = ?, version = version + 1 WHERE uuid = ?");
+                ps.setInt(1, upgrades);
+                SqlDialect.setUuid(ps, 2, uuid);
+                ps.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to update upgrades of " + uuid, e);
+        }
+    }
+
+    /**
+     * Sets the number of upgrades with a single conditional UPDATE on the version,
+     * which the database applies atomically even across servers.
+     *
+     * @param uuid player's UUID
+     * @param upgrades number of upgrades
+     * @param expectedVersion version the new value was computed from
+     * @return true if written, false on a version conflict
+     */
+    @Override
+    public boolean setUpgradesIfVersion(UUID uuid, int upgrades, long expectedVersion) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            insertChest(c, uuid);
+
+            PreparedStatement ps = c.prepare("UPDATE " + TABLE
+                    + " SET upgrades = ?, version = version + 1 WHERE uuid = ? AND version = ?");
+            ps.setInt(1, upgrades);
+            SqlDialect.setUuid(ps, 2, uuid);
+            ps.setLong(3, expectedVersion);
+            return ps.executeUpdate() == 1;
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new StorageException("Failed to update upgrades of " + uuid, e);
         }
     }
 
+    /**
+     * Creates the chest row with version 0 if the player has none.
+     */
+    private void insertChest(ConnectionPool.PooledConnection c, UUID uuid) throws SQLException {
+        PreparedStatement insert = c.prepare(insertChestSql);
+        SqlDialect.setUuid(insert, 1, uuid);
+        insert.executeUpdate();
+    }
+
     /**
      * Returns the ender chest size based on the player's upgrades.
      *
@@ -109,31 +308,63 @@ public class SqlDatabase implements DatabaseProvider {
     }
 
     /**
-     * Saves player's ender chest items as a serialized BLOB in the database.
+     * Saves player's ender chest items, replacing every stored slot.
      *
      * @param uuid player's UUID
      * @param items ItemStack array to save
      */
     @Override
     public void saveItems(UUID uuid, ItemStack[] items) {
-        try {
-            byte[] data = ItemSerializer.toBytes(items);
-            try (PreparedStatement ps = connection.prepareStatement(
-                    "INSERT INTO players(uuid, items) VALUES(?, ?) " +
-                            "ON CONFLICT(uuid) DO UPDATE SET items = ?")) {
-                ps.setString(1, uuid.toString());
-                ps.setBytes(2, data);
-                ps.setBytes(3, data);
-                ps.executeUpdate();
+        BitSet all = new BitSet(items.length);
+        all.set(0, items.length);
+        saveSlots(uuid, items, all);
+    }
+
+    /**
+     * Saves only the changed slots of one player.
+     *
+     * @param uuid player's UUID
+     * @param items ItemStack array to save
+     * @param slots indexes of the slots that changed
+     */
+    @Override
+    public void saveSlots(UUID uuid, ItemStack[] items, BitSet slots) {
+        saveSlots(Collections.singletonList(new SlotUpdate(uuid, items, slots)));
+    }
+
+    /**
+     * Saves the changed slots of several players with JDBC batches inside one transaction,
+     * so a whole group commit costs a single sync on SQLite.
+     * Empty slots lose their row, occupied slots are upserted.
+     * A chest still stored as a whole-chest blob is moved to slot rows first.
+     *
+     * @param updates pending writes, at most one per player
+     * @throws StorageException if the transaction failed, nothing of the batch is stored then
+     */
+    @Override
+    public void saveSlots(Collection<SlotUpdate> updates) {
+        if (updates.isEmpty()) return;
+
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            Connection connection = c.connection();
+            connection.setAutoCommit(false);
+            try {
+                writeUpdates(c, updates);
+                connection.commit();
+            } catch (IOException | SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
         } catch (IOException | SQLException e) {
-            e.printStackTrace();
+            throw new StorageException("Failed to save " + updates.size() + " ender chests", e);
         }
     }
 
     /**
      * Loads a player's ender chest items from the database.
-     * Returns an empty array if no items exist or on failure.
+     * Returns an empty array if no items exist, throws a StorageException on failure.
      *
      * @param uuid player's UUID
      * @param size expected inventory size
@@ -141,24 +372,375 @@ public class SqlDatabase implements DatabaseProvider {
      */
     @Override
     public ItemStack[] loadItems(UUID uuid, int size) {
-        try (PreparedStatement ps = connection.prepareStatement(
-                "SELECT items FROM players WHERE uuid = ?")) {
-            ps.setString(1, uuid.toString());
+        return Arrays.copyOf(loadRecord(uuid).getItems(), size);
+    }
+
+    /**
+     * Writes slot rows for several players on a connection inside an open transaction.
+     */
+    private void writeUpdates(ConnectionPool.PooledConnection c, Collection<SlotUpdate> updates) throws IOException, SQLException {
+
+        // Make sure every chest has a row, bump its version and drop leftover whole-chest blobs
+        PreparedStatement insert = c.prepare(insertChestSql);
+        PreparedStatement bump = c.prepare("UPDATE " + TABLE + " SET version = version + 1 WHERE uuid = ?");
+        PreparedStatement clear = c.prepare("UPDATE " + TABLE + " SET items = NULL WHERE uuid = ? AND items IS NOT NULL");
+        for (SlotUpdate update : updates) {
+            SqlDialect.setUuid(insert, 1, update.getUuid());
+            insert.addBatch();
+            SqlDialect.setUuid(bump, 1, update.getUuid());
+            bump.addBatch();
+            SqlDialect.setUuid(clear, 1, update.getUuid());
+            clear.addBatch();
+        }
+        insert.executeBatch();
+        bump.executeBatch();
+        int[] cleared = clear.executeBatch();
+
+        PreparedStatement deleteAll = c.prepare("DELETE FROM " + SLOT_TABLE + " WHERE uuid = ?");
+        PreparedStatement delete = c.prepare("DELETE FROM " + SLOT_TABLE + " WHERE uuid = ? AND slot = ?");
+        PreparedStatement upsert = c.prepare(upsertSlotSql);
+        boolean deletesAll = false;
+        boolean deletes = false;
+        boolean upserts = false;
+
+        int n = 0;
+        for (SlotUpdate update : updates) {
+            UUID uuid = update.getUuid();
+            ItemStack[] items = update.getItems();
+            BitSet slots = update.getSlots();
+
+            // Full saves and chests that still had a blob replace every row.
+            // Drivers may report SUCCESS_NO_INFO for the clear, which is treated as cleared
+            boolean full = update.isFull() || cleared[n++] != 0;
+            if (full) {
+                SqlDialect.setUuid(deleteAll, 1, uuid);
+                deleteAll.addBatch();
+                deletesAll = true;
+
+                // Only occupied slots need a row again
+                slots = new BitSet(items.length);
+                for (int i = 0; i < items.length; i++) {
+                    if (!ItemSerializer.isEmpty(items[i])) slots.set(i);
+                }
+            }
+
+            for (int i = slots.nextSetBit(0); i >= 0 && i < items.length; i = slots.nextSetBit(i + 1)) {
+                if (ItemSerializer.isEmpty(items[i])) {
+                    SqlDialect.setUuid(delete, 1, uuid);
+                    delete.setInt(2, i);
+                    delete.addBatch();
+                    deletes = true;
+                } else {
+                    SqlDialect.setUuid(upsert, 1, uuid);
+                    upsert.setInt(2, i);
+                    upsert.setBytes(3, ItemSerializer.itemToBytes(items[i]));
+                    upsert.addBatch();
+                    upserts = true;
+                }
+            }
+        }
+
+        if (deletesAll) deleteAll.executeBatch();
+        if (deletes) delete.executeBatch();
+        if (upserts) upsert.executeBatch();
+    }
+
+    // ============================================================
+    // Record Access
+    // ============================================================
+
+    /**
+     * Loads upgrades, version and contents with one SELECT on each table.
+     *
+     * @param uuid player's UUID
+     * @return stored record, or an empty record if the player has no row
+     */
+    @Override
+    public ChestRecord loadRecord(UUID uuid) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("SELECT uuid, upgrades, items, version FROM " + TABLE + " WHERE uuid = ?");
+            SqlDialect.setUuid(ps, 1, uuid);
+            ChestRecord record;
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    byte[] data = rs.getBytes("items");
-                    if (data != null) {
-                        try {
-                            return ItemSerializer.fromBytes(data, size);
-                        } catch (IOException | ClassNotFoundException e) {
-                            e.printStackTrace();
-                        }
+                if (!rs.next()) return ChestRecord.empty(uuid);
+                record = readRecord(uuid, rs);
+            }
+
+            PreparedStatement slots = c.prepare("SELECT uuid, slot, item FROM " + SLOT_TABLE + " WHERE uuid = ?");
+            SqlDialect.setUuid(slots, 1, uuid);
+            try (ResultSet rs = slots.executeQuery()) {
+                readSlots(rs, Collections.singletonMap(uuid, record.getItems()));
+            }
+            return record;
+        } catch (SQLException e) {
+            throw new StorageException("Failed to load the ender chest of " + uuid, e);
+        }
+    }
+
+    /**
+     * Loads several records using chunked IN (...) queries on both tables.
+     *
+     * @param uuids players to load
+     * @return records keyed by player, with an empty record for players without a row
+     */
+    @Override
+    public Map<UUID, ChestRecord> loadRecords(Collection<UUID> uuids) {
+        Map<UUID, ChestRecord> records = new LinkedHashMap<>();
+        List<UUID> all = new ArrayList<>(uuids);
+
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            for (int from = 0; from < all.size(); from += BATCH_CHUNK) {
+                List<UUID> chunk = all.subList(from, Math.min(all.size(), from + BATCH_CHUNK));
+
+                StringBuilder in = new StringBuilder(" WHERE uuid IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    in.append(i == 0 ? "?" : ", ?");
+                }
+                in.append(")");
+
+                PreparedStatement ps = c.prepare("SELECT uuid, upgrades, items, version FROM " + TABLE + in);
+                for (int i = 0; i < chunk.size(); i++) {
+                    SqlDialect.setUuid(ps, i + 1, chunk.get(i));
+                }
+
+                Map<UUID, ItemStack[]> contents = new HashMap<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        UUID uuid = SqlDialect.getUuid(rs, "uuid");
+                        ChestRecord record = readRecord(uuid, rs);
+                        records.put(uuid, record);
+                        contents.put(uuid, record.getItems());
                     }
                 }
+                if (contents.isEmpty()) continue;
+
+                PreparedStatement slots = c.prepare("SELECT uuid, slot, item FROM " + SLOT_TABLE + in);
+                for (int i = 0; i < chunk.size(); i++) {
+                    SqlDialect.setUuid(slots, i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = slots.executeQuery()) {
+                    readSlots(rs, contents);
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to load " + all.size() + " ender chests", e);
+        }
+
+        for (UUID uuid : all) {
+            records.putIfAbsent(uuid, ChestRecord.empty(uuid));
+        }
+        return records;
+    }
+
+    /**
+     * Builds a record from the current row of a result set.
+     *
+     * @throws StorageException if the contents cannot be decoded, a partial chest would be saved over them
+     */
+    private ChestRecord readRecord(UUID uuid, ResultSet rs) throws SQLException {
+        int upgrades = rs.getInt("upgrades");
+        long version = rs.getLong("version");
+        int size = ChestRecord.sizeOf(upgrades);
+
+        ItemStack[] items = new ItemStack[size];
+        byte[] data = rs.getBytes("items");
+        if (data != null) {
+            try {
+                items = ItemSerializer.fromBytes(data, size);
+            } catch (IOException | ClassNotFoundException e) {
+                throw new StorageException("Failed to decode the ender chest of " + uuid, e);
+            }
+        }
+
+        return new ChestRecord(uuid, upgrades, items, version);
+    }
+
+    /**
+     * Copies slot rows into the contents arrays of their owners.
+     * Slot rows win over a leftover whole-chest blob, rows beyond the chest size are ignored.
+     *
+     * @throws StorageException if a slot cannot be decoded, a partial chest would be saved over it
+     */
+    private void readSlots(ResultSet rs, Map<UUID, ItemStack[]> contents) throws SQLException {
+        while (rs.next()) {
+            ItemStack[] items = contents.get(SqlDialect.getUuid(rs, "uuid"));
+            int slot = rs.getInt("slot");
+            if (items == null || slot < 0 || slot >= items.length) continue;
+
+            try {
+                items[slot] = ItemSerializer.itemFromBytes(rs.getBytes("item"));
+            } catch (IOException | ClassNotFoundException e) {
+                throw new StorageException("Failed to decode slot " + slot + " of the ender chest of "
+                        + SqlDialect.getUuid(rs, "uuid"), e);
+            }
+        }
+    }
+
+    // ============================================================
+    // Player Names
+    // ============================================================
+
+    @Override
+    public void saveName(String name, UUID uuid) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare(upsertNameSql);
+            ps.setString(1, name);
+            SqlDialect.setUuid(ps, 2, uuid);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException("Failed to save the name of " + uuid, e);
+        }
+    }
+
+    @Override
+    public UUID lookupName(String name) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("SELECT uuid FROM " + NAME_TABLE + " WHERE name = ?");
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? SqlDialect.getUuid(rs, "uuid") : null;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new StorageException("Failed to look up the player " + name, e);
         }
-        return new ItemStack[size];
+    }
+
+    // ============================================================
+    // Leases
+    // ============================================================
+
+    /**
+     * Claims a chest by inserting its lease, or by taking over the lease
+     * if this server already holds it or it expired. Each statement is atomic,
+     * so two servers never both succeed.
+     */
+    @Override
+    public boolean tryLease(UUID uuid, String server, long now, long expiresAt) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement insert = c.prepare(insertLeaseSql);
+            SqlDialect.setUuid(insert, 1, uuid);
+            insert.setString(2, server);
+            insert.setLong(3, expiresAt);
+            if (insert.executeUpdate() == 1) return true;
+
+            PreparedStatement claim = c.prepare("UPDATE " + LEASE_TABLE
+                    + " SET server = ?, expires_at = ? WHERE uuid = ? AND (server = ? OR expires_at < ?)");
+            claim.setString(1, server);
+            claim.setLong(2, expiresAt);
+            SqlDialect.setUuid(claim, 3, uuid);
+            claim.setString(4, server);
+            claim.setLong(5, now);
+            return claim.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new StorageException("Failed to claim the ender chest of " + uuid, e);
+        }
+    }
+
+    @Override
+    public void renewLeases(String server, long expiresAt) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("UPDATE " + LEASE_TABLE + " SET expires_at = ? WHERE server = ?");
+            ps.setLong(1, expiresAt);
+            ps.setString(2, server);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException("Failed to renew the leases of " + server, e);
+        }
+    }
+
+    @Override
+    public void releaseLease(UUID uuid, String server) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("DELETE FROM " + LEASE_TABLE + " WHERE uuid = ? AND server = ?");
+            SqlDialect.setUuid(ps, 1, uuid);
+            ps.setString(2, server);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException("Failed to release the ender chest of " + uuid, e);
+        }
+    }
+
+    @Override
+    public void releaseLeases(String server) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("DELETE FROM " + LEASE_TABLE + " WHERE server = ?");
+            ps.setString(1, server);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException("Failed to release the leases of " + server, e);
+        }
+    }
+
+    // ============================================================
+    // Change Feed
+    // ============================================================
+
+    /**
+     * Appends the chest with its current stored version.
+     * Nothing is appended for players without a stored chest.
+     */
+    @Override
+    public void publishChange(UUID uuid, String server, long now) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("INSERT INTO " + CHANGE_TABLE + "(uuid, version, server, created_at) "
+                    + "SELECT uuid, version, ?, ? FROM " + TABLE + " WHERE uuid = ?");
+            ps.setString(1, server);
+            ps.setLong(2, now);
+            SqlDialect.setUuid(ps, 3, uuid);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException("Failed to publish the change of " + uuid, e);
+        }
+    }
+
+    @Override
+    public List<ChestChange> readChanges(long afterId, int limit) {
+        List<ChestChange> changes = new ArrayList<>();
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("SELECT id, uuid, version, server FROM " + CHANGE_TABLE
+                    + " WHERE id > ? ORDER BY id LIMIT ?");
+            ps.setLong(1, afterId);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    changes.add(new ChestChange(rs.getLong("id"), SqlDialect.getUuid(rs, "uuid"),
+                            rs.getLong("version"), rs.getString("server")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to read the change feed", e);
+        }
+        return changes;
+    }
+
+    @Override
+    public long latestChange() {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("SELECT MAX(id) FROM " + CHANGE_TABLE);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to read the change feed", e);
+        }
+    }
+
+    @Override
+    public void pruneChanges(long before) {
+        try (ConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement ps = c.prepare("DELETE FROM " + CHANGE_TABLE + " WHERE created_at < ?");
+            ps.setLong(1, before);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException("Failed to prune the change feed", e);
+        }
+    }
+
+    /**
+     * Closes all pooled connections.
+     */
+    @Override
+    public void close() {
+        pool.close();
     }
 }
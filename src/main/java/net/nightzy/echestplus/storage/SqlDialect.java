@@ -0,0 +1,116 @@
+package net.nightzy.echestplus.storage;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Database-specific SQL used by SqlDatabase.
+ * Covers column types, table options and upsert syntax, which differ between SQLite and MySQL.
+ */
+public interface SqlDialect {
+
+    /**
+     * Returns the dialect name used in log messages.
+     */
+    String name();
+
+    /**
+     * Returns the column type for 16 byte binary UUID keys.
+     */
+    String uuidType();
+
+    /**
+     * Returns the column type for serialized chest contents.
+     */
+    String blobType();
+
+    /**
+     * Returns options appended to CREATE TABLE statements.
+     */
+    String tableOptions();
+
+    /**
+     * Returns the definition of an auto-incrementing BIGINT primary key column, without its name.
+     */
+    String autoIncrementKey();
+
+    /**
+     * Returns options appended to CREATE TABLE statements of tables with an auto-incrementing key.
+     */
+    String logTableOptions();
+
+    /**
+     * Builds an insert-or-update statement.
+     *
+     * @param table   table name
+     * @param key     primary key column, or a comma separated list for composite keys
+     * @param columns columns written besides the key, in parameter order after the key
+     * @return SQL with one parameter per column, key first
+     */
+    String upsert(String table, String key, String... columns);
+
+    /**
+     * Builds an insert that does nothing if the key already exists.
+     *
+     * @param table   table name
+     * @param key     primary key column
+     * @param columns columns written besides the key, in parameter order after the key
+     * @return SQL with one parameter per column, key first
+     */
+    String insertIgnore(String table, String key, String... columns);
+
+    /**
+     * Builds the column list and VALUES clause shared by inserts, e.g. "(a, b) VALUES(?, ?)".
+     */
+    static String values(String key, String... columns) {
+        StringBuilder sql = new StringBuilder("(").append(key);
+        for (String column : columns) sql.append(", ").append(column);
+        sql.append(") VALUES(?");
+        for (int i = 1; i < keyParameters(key) + columns.length; i++) sql.append(", ?");
+        return sql.append(")").toString();
+    }
+
+    /**
+     * Returns whether the pre-dialect players table may exist in this database and should be migrated.
+     */
+    boolean hasLegacyTable();
+
+    /**
+     * Returns the number of parameters needed to bind a possibly composite key.
+     */
+    static int keyParameters(String key) {
+        return key.split(",").length;
+    }
+
+    // ============================================================
+    // UUID Encoding
+    // ============================================================
+
+    /**
+     * Binds a UUID as 16 big-endian bytes.
+     */
+    static void setUuid(PreparedStatement ps, int index, UUID uuid) throws SQLException {
+        ps.setBytes(index, toBytes(uuid));
+    }
+
+    /**
+     * Reads a UUID stored as 16 big-endian bytes.
+     */
+    static UUID getUuid(ResultSet rs, String column) throws SQLException {
+        ByteBuffer buffer = ByteBuffer.wrap(rs.getBytes(column));
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Encodes a UUID as 16 big-endian bytes.
+     */
+    static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+}
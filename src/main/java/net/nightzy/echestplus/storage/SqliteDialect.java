@@ -0,0 +1,61 @@
+package net.nightzy.echestplus.storage;
+
+/**
+ * SQLite flavour of SQL.
+ * Uses ON CONFLICT upserts and WITHOUT ROWID tables so the UUID key is the clustered index.
+ */
+public class SqliteDialect implements SqlDialect {
+
+    @Override
+    public String name() {
+        return "SQLite";
+    }
+
+    @Override
+    public String uuidType() {
+        return "BLOB";
+    }
+
+    @Override
+    public String blobType() {
+        return "BLOB";
+    }
+
+    @Override
+    public String tableOptions() {
+        return " WITHOUT ROWID";
+    }
+
+    @Override
+    public String autoIncrementKey() {
+        // AUTOINCREMENT never reuses ids of deleted rows, which the feed relies on
+        return "INTEGER PRIMARY KEY AUTOINCREMENT";
+    }
+
+    @Override
+    public String logTableOptions() {
+        // AUTOINCREMENT needs a rowid table
+        return "";
+    }
+
+    @Override
+    public String upsert(String table, String key, String... columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(SqlDialect.values(key, columns));
+        sql.append(" ON CONFLICT(").append(key).append(") DO UPDATE SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(columns[i]).append(" = excluded.").append(columns[i]);
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public String insertIgnore(String table, String key, String... columns) {
+        return "INSERT OR IGNORE INTO " + table + SqlDialect.values(key, columns);
+    }
+
+    @Override
+    public boolean hasLegacyTable() {
+        return true;
+    }
+}
@@ -0,0 +1,12 @@
+package net.nightzy.echestplus.storage;
+
+/**
+ * Thrown by a provider when a write could not be completed.
+ * Callers that track durability (the save queue and journal) must not treat the data as stored.
+ */
+public class StorageException extends RuntimeException {
+
+    public StorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,307 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * DatabaseProvider that forwards to a provider which can be replaced at runtime.
+ *
+ * Calls share a read lock, so a swap waits for running calls to finish and
+ * no call ever reaches a provider that is already closed.
+ */
+public class SwappableDatabase implements DatabaseProvider {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private DatabaseProvider delegate; // Current provider, guarded by lock
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    public SwappableDatabase(DatabaseProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    // ============================================================
+    // Swapping
+    // ============================================================
+
+    /**
+     * Replaces the current provider.
+     *
+     * The current provider is flushed before the new one is created, so a provider
+     * reading the same files sees every write. Calls are held back meanwhile.
+     *
+     * @param factory creates the new provider, may throw to keep the current one
+     * @return previous provider, to be closed by the caller
+     */
+    public DatabaseProvider swap(Supplier<DatabaseProvider> factory) {
+
+        lock.writeLock().lock();
+        try {
+            delegate.flush();
+            DatabaseProvider previous = delegate;
+            delegate = factory.get();
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ============================================================
+    // Forwarding
+    // ============================================================
+
+    @Override
+    public int getUpgrades(UUID uuid) {
+        lock.readLock().lock();
+        try {
+            return delegate.getUpgrades(uuid);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setUpgrades(UUID uuid, int upgrades) {
+        lock.readLock().lock();
+        try {
+            delegate.setUpgrades(uuid, upgrades);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getSize(UUID uuid) {
+        lock.readLock().lock();
+        try {
+            return delegate.getSize(uuid);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setSize(UUID uuid, int size) {
+        lock.readLock().lock();
+        try {
+            delegate.setSize(uuid, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveItems(UUID uuid, ItemStack[] items) {
+        lock.readLock().lock();
+        try {
+            delegate.saveItems(uuid, items);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveSlots(UUID uuid, ItemStack[] items, BitSet slots) {
+        lock.readLock().lock();
+        try {
+            delegate.saveSlots(uuid, items, slots);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveSlots(Collection<SlotUpdate> updates) {
+        lock.readLock().lock();
+        try {
+            delegate.saveSlots(updates);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ItemStack[] loadItems(UUID uuid, int size) {
+        lock.readLock().lock();
+        try {
+            return delegate.loadItems(uuid, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ChestRecord loadRecord(UUID uuid) {
+        lock.readLock().lock();
+        try {
+            return delegate.loadRecord(uuid);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<UUID, ChestRecord> loadRecords(Collection<UUID> uuids) {
+        lock.readLock().lock();
+        try {
+            return delegate.loadRecords(uuids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean setUpgradesIfVersion(UUID uuid, int upgrades, long expectedVersion) {
+        lock.readLock().lock();
+        try {
+            return delegate.setUpgradesIfVersion(uuid, upgrades, expectedVersion);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int updateUpgrades(UUID uuid, IntUnaryOperator change) {
+        lock.readLock().lock();
+        try {
+            return delegate.updateUpgrades(uuid, change);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveName(String name, UUID uuid) {
+        lock.readLock().lock();
+        try {
+            delegate.saveName(name, uuid);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public UUID lookupName(String name) {
+        lock.readLock().lock();
+        try {
+            return delegate.lookupName(name);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean tryLease(UUID uuid, String server, long now, long expiresAt) {
+        lock.readLock().lock();
+        try {
+            return delegate.tryLease(uuid, server, now, expiresAt);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void renewLeases(String server, long expiresAt) {
+        lock.readLock().lock();
+        try {
+            delegate.renewLeases(server, expiresAt);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void releaseLease(UUID uuid, String server) {
+        lock.readLock().lock();
+        try {
+            delegate.releaseLease(uuid, server);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void releaseLeases(String server) {
+        lock.readLock().lock();
+        try {
+            delegate.releaseLeases(server);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void publishChange(UUID uuid, String server, long now) {
+        lock.readLock().lock();
+        try {
+            delegate.publishChange(uuid, server, now);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ChestChange> readChanges(long afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            return delegate.readChanges(afterId, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long latestChange() {
+        lock.readLock().lock();
+        try {
+            return delegate.latestChange();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void pruneChanges(long before) {
+        lock.readLock().lock();
+        try {
+            delegate.pruneChanges(before);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            delegate.flush();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            delegate.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package net.nightzy.echestplus.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression stage used by ItemSerializer.
+ *
+ * Uses DEFLATE with an optional preset dictionary. Dictionaries are trained
+ * from a sample of serialized chests, stored as {@code <id>.dict} files and
+ * identified by the CRC32 of their contents, so blobs written with an older
+ * dictionary stay readable as long as its file is kept.
+ */
+public final class BlobCompressor {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    /**
+     * Available compression algorithms.
+     */
+    public enum Algorithm {
+        NONE,
+        DEFLATE
+    }
+
+    public static final BlobCompressor NONE = new BlobCompressor(Algorithm.NONE, 0, Integer.MAX_VALUE, null, 0, null);
+
+    private static final int MAX_DICTIONARY = 32 * 1024; // DEFLATE window size
+    private static final int SEGMENT = 32;               // Length of substrings counted during training
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final Algorithm algorithm;   // Algorithm used for new blobs
+    private final int level;             // DEFLATE level 1-9
+    private final int threshold;         // Bodies smaller than this are stored raw
+    private final File dictionaryFolder; // Folder holding trained dictionaries, null to disable training
+    private final int sampleTarget;      // Samples collected before a dictionary is trained
+    private final Logger logger;         // Logger for training progress
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>(); // Dictionary id -> contents
+    private volatile int activeDictionary = 0;                                    // Id used for new blobs, 0 = none
+
+    private final List<byte[]> samples = new ArrayList<>(); // Bodies collected for training
+    private boolean trained = false;
+
+    private final ThreadLocal<Deflater> deflater;
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+    // ============================================================
+    // Constructor
+    // ============================================================
+
+    /**
+     * Creates a compressor and loads dictionaries from the dictionary folder.
+     *
+     * @param algorithm        algorithm used for new blobs
+     * @param level            DEFLATE level 1-9
+     * @param threshold        minimum body size in bytes before compression is attempted
+     * @param dictionaryFolder folder with stored dictionaries, or null
+     * @param sampleTarget     samples collected before training, 0 disables training
+     * @param logger           logger for training progress, or null
+     */
+    public BlobCompressor(Algorithm algorithm, int level, int threshold,
+                          File dictionaryFolder, int sampleTarget, Logger logger) {
+        this.algorithm = algorithm;
+        this.level = Math.max(1, Math.min(9, level));
+        this.threshold = Math.max(0, threshold);
+        this.dictionaryFolder = dictionaryFolder;
+        this.sampleTarget = sampleTarget;
+        this.logger = logger;
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(this.level));
+
+        loadDictionaries();
+    }
+
+    /**
+     * Reads stored dictionaries. The newest file becomes the active dictionary.
+     */
+    private void loadDictionaries() {
+        if (dictionaryFolder == null || !dictionaryFolder.isDirectory()) return;
+
+        File[] files = dictionaryFolder.listFiles((dir, name) -> name.endsWith(".dict"));
+        if (files == null) return;
+
+        long newest = Long.MIN_VALUE;
+        for (File file : files) {
+            try {
+                byte[] dictionary = Files.readAllBytes(file.toPath());
+                int id = idOf(dictionary);
+                dictionaries.put(id, dictionary);
+
+                if (file.lastModified() > newest) {
+                    newest = file.lastModified();
+                    activeDictionary = id;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // An existing dictionary means training already happened
+        trained = !dictionaries.isEmpty();
+    }
+
+    // ============================================================
+    // Compression
+    // ============================================================
+
+    /**
+     * Compressed form of a body together with the dictionary used.
+     */
+    public static final class Compressed {
+        public final byte[] data;
+        public final int dictionaryId;
+
+        Compressed(byte[] data, int dictionaryId) {
+            this.data = data;
+            this.dictionaryId = dictionaryId;
+        }
+    }
+
+    /**
+     * Compresses a serialized body if it is large enough and compression pays off.
+     *
+     * @param body   serialized bytes
+     * @param offset start of the body
+     * @param length length of the body
+     * @return compressed body, or null if the body should be stored raw
+     */
+    public Compressed compress(byte[] body, int offset, int length) {
+        if (algorithm == Algorithm.NONE || length < threshold) return null;
+
+        collectSample(body, offset, length);
+
+        int dictionaryId = activeDictionary;
+        Deflater d = deflater.get();
+        d.reset();
+        if (dictionaryId != 0) d.setDictionary(dictionaries.get(dictionaryId));
+        d.setInput(body, offset, length);
+        d.finish();
+
+        byte[] out = new byte[Math.max(64, length / 2)];
+        int written = 0;
+        while (!d.finished()) {
+            if (written == out.length) {
+                // Not worth it if the output grows past the input
+                if (out.length >= length) return null;
+                out = Arrays.copyOf(out, Math.min(length, out.length * 2));
+            }
+            written += d.deflate(out, written, out.length - written);
+        }
+
+        if (written >= length) return null;
+        return new Compressed(Arrays.copyOf(out, written), dictionaryId);
+    }
+
+    /**
+     * Decompresses a body.
+     *
+     * @param data         compressed bytes
+     * @param offset       start of the compressed bytes
+     * @param rawLength    length of the original body
+     * @param dictionaryId dictionary used for compression, 0 for none
+     * @return original body
+     * @throws IOException if the data is corrupt or the dictionary is missing
+     */
+    public byte[] decompress(byte[] data, int offset, int rawLength, int dictionaryId) throws IOException {
+        return decompress(ByteBuffer.wrap(data, offset, data.length - offset), rawLength, dictionaryId);
+    }
+
+    /**
+     * Decompresses a body read straight from a buffer, e.g. a memory-mapped file.
+     *
+     * @param data         compressed bytes between position and limit, the position is advanced
+     * @param rawLength    length of the original body
+     * @param dictionaryId dictionary used for compression, 0 for none
+     * @return original body
+     * @throws IOException if the data is corrupt or the dictionary is missing
+     */
+    public byte[] decompress(ByteBuffer data, int rawLength, int dictionaryId) throws IOException {
+        Inflater i = inflater.get();
+        i.reset();
+        i.setInput(data);
+
+        byte[] out = new byte[rawLength];
+        int read = 0;
+        try {
+            while (read < rawLength && !i.finished()) {
+                int n = i.inflate(out, read, rawLength - read);
+                if (n == 0) {
+                    if (i.needsDictionary()) {
+                        byte[] dictionary = dictionaries.get(dictionaryId);
+                        if (dictionary == null) {
+                            throw new IOException("Missing compression dictionary " + Integer.toHexString(dictionaryId));
+                        }
+                        i.setDictionary(dictionary);
+                        continue;
+                    }
+                    if (i.needsInput()) break;
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed item data", e);
+        }
+
+        if (read != rawLength) throw new IOException("Truncated compressed item data");
+        return out;
+    }
+
+    // ============================================================
+    // Dictionary Training
+    // ============================================================
+
+    /**
+     * Keeps a copy of a body until enough samples exist to train a dictionary.
+     */
+    private void collectSample(byte[] body, int offset, int length) {
+        if (dictionaryFolder == null || sampleTarget <= 0) return;
+
+        List<byte[]> ready = null;
+        synchronized (samples) {
+            if (trained) return;
+            samples.add(Arrays.copyOfRange(body, offset, offset + length));
+            if (samples.size() >= sampleTarget) {
+                ready = new ArrayList<>(samples);
+                samples.clear();
+                trained = true;
+            }
+        }
+
+        if (ready != null) train(ready);
+    }
+
+    /**
+     * Builds a dictionary from the most common substrings of the samples,
+     * stores it and makes it the active dictionary.
+     */
+    private void train(List<byte[]> bodies) {
+
+        // Count in how many samples each segment occurs
+        Map<ByteBuffer, Integer> counts = new HashMap<>();
+        for (byte[] body : bodies) {
+            Map<ByteBuffer, Boolean> seen = new HashMap<>();
+            for (int pos = 0; pos + SEGMENT <= body.length; pos += SEGMENT / 4) {
+                seen.putIfAbsent(ByteBuffer.wrap(body, pos, SEGMENT).slice(), Boolean.TRUE);
+            }
+            for (ByteBuffer segment : seen.keySet()) {
+                counts.merge(segment, 1, Integer::sum);
+            }
+        }
+
+        List<Map.Entry<ByteBuffer, Integer>> common = new ArrayList<>();
+        for (Map.Entry<ByteBuffer, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) common.add(entry);
+        }
+        common.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+
+        int segments = Math.min(common.size(), MAX_DICTIONARY / SEGMENT);
+        if (segments == 0) return;
+
+        // DEFLATE reaches the end of the dictionary cheapest, so the most common segments go last
+        byte[] dictionary = new byte[segments * SEGMENT];
+        for (int n = 0; n < segments; n++) {
+            ByteBuffer segment = common.get(n).getKey().duplicate();
+            segment.get(dictionary, (segments - 1 - n) * SEGMENT, SEGMENT);
+        }
+
+        int id = idOf(dictionary);
+        try {
+            Files.createDirectories(dictionaryFolder.toPath());
+            File target = new File(dictionaryFolder, Integer.toHexString(id) + ".dict");
+            File temp = new File(dictionaryFolder, target.getName() + ".tmp");
+            Files.write(temp.toPath(), dictionary);
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Never use a dictionary that is not on disk, its blobs would be unreadable after a restart
+            e.printStackTrace();
+            return;
+        }
+
+        dictionaries.put(id, dictionary);
+        activeDictionary = id;
+
+        if (logger != null) {
+            logger.info("Trained compression dictionary " + Integer.toHexString(id)
+                    + " (" + dictionary.length + " bytes) from " + bodies.size() + " chests.");
+        }
+    }
+
+    /**
+     * Returns the id of a dictionary, never 0.
+     */
+    private static int idOf(byte[] dictionary) {
+        CRC32 crc = new CRC32();
+        crc.update(dictionary);
+        int id = (int) crc.getValue();
+        return id == 0 ? 1 : id;
+    }
+}
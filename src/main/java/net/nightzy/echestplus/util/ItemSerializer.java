@@ -2,21 +2,76 @@ package net.nightzy.echestplus.util;
 
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.util.io.BukkitObjectInputStream;
-import org.bukkit.util.io.BukkitObjectOutputStream;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Utility class for serializing and deserializing ItemStack arrays.
  * Used for storing ender chest contents in SQL or YML storage.
+ *
+ * Format (version 1):
+ * <pre>
+ * magic    2 bytes  'E' 'C'
+ * version  1 byte
+ * flags    1 byte   bit 0 = compressed, bit 1 = compressed with dictionary
+ * body:
+ *   length   varint   number of slots in the array
+ *   count    varint   number of occupied slots
+ *   count x  varint slot index, varint payload length, payload (Paper item bytes)
+ * </pre>
+ * When compressed, the body is replaced by [varint dictionary id, if bit 1]
+ * [varint body length][DEFLATE data]. Empty slots are not written. Blobs written
+ * by older versions through BukkitObjectOutputStream are still read transparently.
  */
 public final class ItemSerializer {
 
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final byte MAGIC_0 = 'E';
+    private static final byte MAGIC_1 = 'C';
+    private static final byte VERSION = 1;
+    private static final int HEADER = 4;
+
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_DICTIONARY = 2;
+
+    // Upper bound for a decompressed body, guards against corrupt length fields
+    private static final int MAX_BODY = 64 * 1024 * 1024;
+
+    // First bytes of a Java serialization stream (legacy format)
+    private static final byte LEGACY_MAGIC_0 = (byte) 0xAC;
+    private static final byte LEGACY_MAGIC_1 = (byte) 0xED;
+
+    // Buffers larger than this are not kept around between calls
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    // Reusable per-thread output buffer
+    private static final ThreadLocal<ByteWriter> WRITER = ThreadLocal.withInitial(() -> new ByteWriter(8192));
+
+    // Compression stage applied to the body
+    private static volatile BlobCompressor compressor = BlobCompressor.NONE;
+
     // Prevent instantiation
     private ItemSerializer() {}
 
+    /**
+     * Sets the compression stage used for new blobs and for reading compressed ones.
+     *
+     * @param blobCompressor configured compressor
+     */
+    public static void setCompressor(BlobCompressor blobCompressor) {
+        compressor = blobCompressor;
+    }
+
+    // ============================================================
+    // Encoding
+    // ============================================================
+
     /**
      * Serializes an array of ItemStacks into a byte array.
      *
@@ -25,22 +80,89 @@ public final class ItemSerializer {
      * @throws IOException if serialization fails
      */
     public static byte[] toBytes(ItemStack[] items) throws IOException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             BukkitObjectOutputStream boos = new BukkitObjectOutputStream(bos)) {
+        ByteWriter out = WRITER.get();
+        out.reset();
 
-            // Write the length first
-            boos.writeInt(items.length);
+        int count = 0;
+        for (ItemStack is : items) {
+            if (!isEmpty(is)) count++;
+        }
 
-            // Write each ItemStack object
-            for (ItemStack is : items) {
-                boos.writeObject(is);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(VERSION);
+        out.writeByte(0);
+        out.writeVarInt(items.length);
+        out.writeVarInt(count);
+
+        // Sparse slot index + payload pairs
+        for (int i = 0; i < items.length; i++) {
+            if (isEmpty(items[i])) continue;
+
+            byte[] payload;
+            try {
+                payload = items[i].serializeAsBytes();
+            } catch (RuntimeException e) {
+                throw new IOException("Failed to serialize item in slot " + i, e);
             }
 
-            boos.flush();
-            return bos.toByteArray();
+            out.writeVarInt(i);
+            out.writeVarInt(payload.length);
+            out.writeBytes(payload);
         }
+
+        byte[] result = compress(out);
+        if (out.capacity() > MAX_RETAINED_BUFFER) WRITER.remove();
+        return result;
+    }
+
+    /**
+     * Returns the finished blob, compressing the body when the compressor accepts it.
+     */
+    private static byte[] compress(ByteWriter out) {
+        byte[] raw = out.buffer();
+        int bodyLength = out.size() - HEADER;
+
+        BlobCompressor.Compressed compressed = compressor.compress(raw, HEADER, bodyLength);
+        if (compressed == null) return out.toByteArray();
+
+        int flags = FLAG_COMPRESSED | (compressed.dictionaryId != 0 ? FLAG_DICTIONARY : 0);
+        ByteWriter blob = new ByteWriter(compressed.data.length + HEADER + 10);
+        blob.writeByte(MAGIC_0);
+        blob.writeByte(MAGIC_1);
+        blob.writeByte(VERSION);
+        blob.writeByte(flags);
+        if (compressed.dictionaryId != 0) blob.writeVarInt(compressed.dictionaryId);
+        blob.writeVarInt(bodyLength);
+        blob.writeBytes(compressed.data);
+        return blob.toByteArray();
+    }
+
+    /**
+     * Serializes a single slot, e.g. for per-slot storage layouts.
+     *
+     * @param item item to serialize
+     * @return byte array representation of the item
+     * @throws IOException if serialization fails
+     */
+    public static byte[] itemToBytes(ItemStack item) throws IOException {
+        return toBytes(new ItemStack[] { item });
+    }
+
+    /**
+     * Returns whether a slot holds nothing worth storing.
+     *
+     * @param is item in the slot
+     * @return true for null, air or zero-amount items
+     */
+    public static boolean isEmpty(ItemStack is) {
+        return is == null || is.getType().isAir() || is.getAmount() <= 0;
     }
 
+    // ============================================================
+    // Decoding
+    // ============================================================
+
     /**
      * Deserializes a byte array into an array of ItemStacks.
      * Returns an array with the specified size, filling only available items.
@@ -52,6 +174,87 @@ public final class ItemSerializer {
      * @throws ClassNotFoundException if an object in the stream is not an ItemStack
      */
     public static ItemStack[] fromBytes(byte[] data, int size) throws IOException, ClassNotFoundException {
+        return fromBytes(ByteBuffer.wrap(data), size);
+    }
+
+    /**
+     * Deserializes the remaining bytes of a buffer, e.g. a slice of a memory-mapped file,
+     * without copying the blob first. Only the bytes of each item are copied out.
+     * The buffer's position is not changed.
+     *
+     * @param data serialized bytes between position and limit
+     * @param size expected size of the resulting ItemStack array
+     * @return deserialized ItemStack array
+     * @throws IOException if deserialization fails
+     * @throws ClassNotFoundException if an object in the stream is not an ItemStack
+     */
+    public static ItemStack[] fromBytes(ByteBuffer data, int size) throws IOException, ClassNotFoundException {
+        data = data.slice();
+        int blobLength = data.remaining();
+
+        if (blobLength >= 2 && data.get(0) == LEGACY_MAGIC_0 && data.get(1) == LEGACY_MAGIC_1) {
+            byte[] legacy = new byte[blobLength];
+            data.get(0, legacy);
+            return fromLegacyBytes(legacy, size);
+        }
+        if (blobLength < HEADER || data.get(0) != MAGIC_0 || data.get(1) != MAGIC_1) {
+            throw new IOException("Unknown item data format");
+        }
+        if (data.get(2) != VERSION) {
+            throw new IOException("Unsupported item data version " + data.get(2));
+        }
+
+        ByteReader in = new ByteReader(data, HEADER);
+        int flags = data.get(3);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            int dictionaryId = (flags & FLAG_DICTIONARY) != 0 ? in.readVarInt() : 0;
+            int bodyLength = in.readVarInt();
+            if (bodyLength < 0 || bodyLength > MAX_BODY) throw new IOException("Invalid item data length " + bodyLength);
+
+            byte[] body = compressor.decompress(data.slice(in.position(), blobLength - in.position()), bodyLength, dictionaryId);
+            in = new ByteReader(ByteBuffer.wrap(body), 0);
+        }
+
+        in.readVarInt(); // stored array length, the caller decides the size
+        int count = in.readVarInt();
+
+        ItemStack[] items = new ItemStack[size];
+        for (int n = 0; n < count; n++) {
+            int slot = in.readVarInt();
+            int length = in.readVarInt();
+            if (slot < 0) throw new IOException("Invalid slot index " + slot);
+
+            // Slots beyond the requested size are skipped without decoding
+            if (slot < size) {
+                try {
+                    items[slot] = ItemStack.deserializeBytes(in.slice(length));
+                } catch (RuntimeException e) {
+                    throw new IOException("Failed to deserialize item in slot " + slot, e);
+                }
+            } else {
+                in.skip(length);
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * Deserializes a single slot written by {@link #itemToBytes(ItemStack)}.
+     *
+     * @param data serialized byte array
+     * @return deserialized item, or null for an empty slot
+     * @throws IOException if deserialization fails
+     * @throws ClassNotFoundException if an object in the stream is not an ItemStack
+     */
+    public static ItemStack itemFromBytes(byte[] data) throws IOException, ClassNotFoundException {
+        return fromBytes(data, 1)[0];
+    }
+
+    /**
+     * Reads the BukkitObjectOutputStream format written by older versions.
+     */
+    private static ItemStack[] fromLegacyBytes(byte[] data, int size) throws IOException, ClassNotFoundException {
         try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
              BukkitObjectInputStream bois = new BukkitObjectInputStream(bis)) {
 
@@ -67,4 +270,113 @@ public final class ItemSerializer {
             return items;
         }
     }
+
+    // ============================================================
+    // Buffers
+    // ============================================================
+
+    /**
+     * Growable output buffer with varint support.
+     */
+    private static final class ByteWriter {
+
+        private byte[] buf;
+        private int pos;
+
+        ByteWriter(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void reset() {
+            pos = 0;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        int size() {
+            return pos;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+    }
+
+    /**
+     * Bounds-checked reader over a buffer, reading by absolute index.
+     */
+    private static final class ByteReader {
+
+        private final ByteBuffer buf;
+        private int pos;
+
+        ByteReader(ByteBuffer buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        int position() {
+            return pos;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (pos >= buf.limit()) throw new IOException("Truncated item data");
+                byte b = buf.get(pos++);
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint in item data");
+        }
+
+        byte[] slice(int length) throws IOException {
+            check(length);
+            byte[] out = new byte[length];
+            buf.get(pos, out);
+            pos += length;
+            return out;
+        }
+
+        void skip(int length) throws IOException {
+            check(length);
+            pos += length;
+        }
+
+        private void check(int length) throws IOException {
+            if (length < 0 || pos + length > buf.limit()) throw new IOException("Truncated item data");
+        }
+    }
 }
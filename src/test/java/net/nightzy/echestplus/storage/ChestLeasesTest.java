@@ -0,0 +1,142 @@
+package net.nightzy.echestplus.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two servers claiming the same chest through one SQLite file.
+ */
+class ChestLeasesTest {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final long POLL_INTERVAL = 10L;
+    private static final long LONG_WAIT = TimeUnit.SECONDS.toMillis(10);
+    private static final long LONG_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Logger LOGGER = Logger.getLogger(ChestLeasesTest.class.getName());
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    @TempDir
+    Path folder;
+
+    private SqlDatabase first;  // Connection of server "a"
+    private SqlDatabase second; // Connection of server "b"
+    private final UUID uuid = UUID.randomUUID();
+
+    // ============================================================
+    // Setup
+    // ============================================================
+
+    @BeforeEach
+    void open() throws Exception {
+        first = connect();
+        second = connect();
+    }
+
+    /**
+     * Opens a separate connection to the shared database file, as a second server would.
+     */
+    private SqlDatabase connect() throws Exception {
+        String uri = "jdbc:sqlite:" + folder.resolve("leases.db");
+        return new SqlDatabase(new ConnectionPool(uri, 1, 5000, 60000, 5000, 16), new SqliteDialect());
+    }
+
+    @AfterEach
+    void close() {
+        first.close();
+        second.close();
+    }
+
+    private ChestLeases leases(SqlDatabase database, String server, long ttl, long waitTimeout) {
+        return new ChestLeases(database, Runnable::run, LOGGER, server, ttl, waitTimeout, POLL_INTERVAL);
+    }
+
+    // ============================================================
+    // Tests
+    // ============================================================
+
+    @Test
+    void waitsWhileAnotherServerHoldsTheChest() {
+        ChestLeases a = leases(first, "a", LONG_TTL, LONG_WAIT);
+        ChestLeases b = leases(second, "b", LONG_TTL, 300L);
+
+        a.acquire(uuid);
+        assertTrue(a.holds(uuid));
+
+        long start = System.currentTimeMillis();
+        assertThrows(StorageException.class, () -> b.acquire(uuid));
+        long waited = System.currentTimeMillis() - start;
+
+        // Gave up after the wait timeout without taking the chest away
+        assertTrue(waited >= 300L, "waited " + waited + " ms");
+        assertFalse(b.holds(uuid));
+        assertFalse(b.claim(uuid));
+    }
+
+    @Test
+    void claimsOnceTheOtherServerReleased() throws Exception {
+        ChestLeases a = leases(first, "a", LONG_TTL, LONG_WAIT);
+        ChestLeases b = leases(second, "b", LONG_TTL, LONG_WAIT);
+
+        a.acquire(uuid);
+
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        a.releaseAfter(uuid, written);
+
+        long start = System.currentTimeMillis();
+        Thread joining = new Thread(() -> b.acquire(uuid));
+        joining.start();
+
+        // Still held until the last save is written
+        Thread.sleep(200L);
+        assertTrue(joining.isAlive());
+        assertTrue(a.holds(uuid));
+
+        written.complete(null);
+        joining.join(LONG_WAIT);
+        long waited = System.currentTimeMillis() - start;
+
+        assertFalse(a.holds(uuid));
+        assertTrue(b.holds(uuid));
+        assertTrue(waited < LONG_WAIT, "waited " + waited + " ms");
+        assertFalse(a.claim(uuid));
+    }
+
+    @Test
+    void takesOverAStaleLeaseAfterItsTtl() {
+        // "a" crashed: it never renews or releases its lease
+        ChestLeases a = leases(first, "a", 300L, LONG_WAIT);
+        ChestLeases b = leases(second, "b", LONG_TTL, LONG_WAIT);
+
+        a.acquire(uuid);
+
+        long start = System.currentTimeMillis();
+        b.acquire(uuid);
+        long waited = System.currentTimeMillis() - start;
+
+        assertTrue(b.holds(uuid));
+        assertTrue(waited >= 200L && waited < LONG_WAIT, "waited " + waited + " ms");
+
+        // A late release of the old claim leaves the new owner alone
+        a.releaseAfter(uuid, CompletableFuture.completedFuture(null));
+        assertFalse(a.claim(uuid));
+    }
+}
@@ -0,0 +1,149 @@
+package net.nightzy.echestplus.storage;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.Binary;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs against the MongoDB server in ECHESTPLUS_MONGO_URI and is skipped without it.
+ * Items cannot be serialized without a running server, so slot writes are
+ * checked with emptied slots and raw stored bytes.
+ */
+class DatabaseMongoTest {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final String URI_VARIABLE = "ECHESTPLUS_MONGO_URI";
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private MongoClient client;
+    private MongoCollection<Document> chests;
+    private DatabaseMongo database;
+
+    // ============================================================
+    // Setup
+    // ============================================================
+
+    @BeforeEach
+    void open() {
+        String uri = System.getenv(URI_VARIABLE);
+        assumeTrue(uri != null && !uri.isBlank(), URI_VARIABLE + " is not set");
+
+        ConnectionString connection = new ConnectionString(uri);
+        client = MongoClients.create(MongoClientSettings.builder()
+                .applyConnectionString(connection)
+                .uuidRepresentation(UuidRepresentation.STANDARD)
+                .build());
+
+        String name = connection.getDatabase() != null ? connection.getDatabase() : "echestplus_test";
+        chests = client.getDatabase(name).getCollection("chests_" + UUID.randomUUID().toString().replace("-", ""));
+        database = new DatabaseMongo(chests);
+    }
+
+    @AfterEach
+    void close() {
+        if (chests != null) chests.drop();
+        if (client != null) client.close();
+    }
+
+    private Document stored(UUID uuid) {
+        return chests.find(Filters.eq("_id", uuid)).first();
+    }
+
+    // ============================================================
+    // Versioned Upgrades
+    // ============================================================
+
+    @Test
+    void upsertsANewChestOnlyOnceAtVersionZero() {
+        UUID uuid = UUID.randomUUID();
+
+        assertTrue(database.setUpgradesIfVersion(uuid, 1, 0L));
+        assertEquals(1L, stored(uuid).getLong("version"));
+
+        // The chest exists now, a second creation is a conflict instead of a duplicate key error
+        assertFalse(database.setUpgradesIfVersion(uuid, 2, 0L));
+        assertEquals(1, database.getUpgrades(uuid));
+
+        assertTrue(database.setUpgradesIfVersion(uuid, 2, 1L));
+        assertEquals(2, database.getUpgrades(uuid));
+        assertEquals(2L, stored(uuid).getLong("version"));
+    }
+
+    @Test
+    void updatesUpgradesAgainstTheStoredValue() {
+        UUID uuid = UUID.randomUUID();
+        database.setUpgrades(uuid, 1);
+
+        assertEquals(3, database.updateUpgrades(uuid, upgrades -> upgrades + 2));
+        assertEquals(3, database.getUpgrades(uuid));
+    }
+
+    @Test
+    void readsUpgradesOfUnknownChestsAsZero() {
+        assertEquals(0, database.getUpgrades(UUID.randomUUID()));
+    }
+
+    // ============================================================
+    // Slot Writes
+    // ============================================================
+
+    @Test
+    void writesOnlyChangedSlotsInOneBatch() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        for (UUID uuid : Arrays.asList(first, second)) {
+            chests.insertOne(new Document("_id", uuid)
+                    .append("upgrades", 0)
+                    .append("version", 4L)
+                    .append("slots", new Document("0", new Binary(new byte[] { 1 }))
+                            .append("5", new Binary(new byte[] { 2 }))));
+        }
+
+        BitSet changed = new BitSet();
+        changed.set(0);
+        database.saveSlots(Arrays.asList(
+                new SlotUpdate(first, new ItemStack[27], changed),
+                new SlotUpdate(second, new ItemStack[27], changed)
+        ));
+
+        for (UUID uuid : Arrays.asList(first, second)) {
+            Document slots = stored(uuid).get("slots", Document.class);
+            assertNull(slots.get("0"));
+            assertEquals(new Binary(new byte[] { 2 }), slots.get("5"));
+            assertEquals(5L, stored(uuid).getLong("version"));
+        }
+    }
+
+    @Test
+    void skipsUpdatesWithoutChangedSlots() {
+        UUID uuid = UUID.randomUUID();
+        database.saveSlots(uuid, new ItemStack[27], new BitSet());
+        assertNull(stored(uuid));
+    }
+}
@@ -0,0 +1,135 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory provider for save queue and journal tests.
+ * Can fail a number of writes and hold writes back until opened.
+ */
+class FakeDatabase implements DatabaseProvider {
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    final Map<UUID, ItemStack[]> items = new ConcurrentHashMap<>(); // Latest contents written per player
+    final Map<UUID, BitSet> slots = new ConcurrentHashMap<>();      // Every slot written per player
+    final AtomicInteger writes = new AtomicInteger();               // Writes attempted, failed ones included
+
+    private final AtomicInteger failures = new AtomicInteger(); // Writes left to fail
+    private volatile CountDownLatch gate;                       // Holds writes back while closed, null if open
+
+    // ============================================================
+    // Test Controls
+    // ============================================================
+
+    /**
+     * Fails the next writes with a StorageException.
+     */
+    void failNext(int count) {
+        failures.set(count);
+    }
+
+    /**
+     * Holds every write back until {@link #release()} is called.
+     */
+    void hold() {
+        gate = new CountDownLatch(1);
+    }
+
+    void release() {
+        CountDownLatch current = gate;
+        gate = null;
+        if (current != null) current.countDown();
+    }
+
+    // ============================================================
+    // Writes
+    // ============================================================
+
+    @Override
+    public void saveSlots(Collection<SlotUpdate> updates) {
+        attempt();
+        for (SlotUpdate update : updates) {
+            saveSlots(update.getUuid(), update.getItems(), update.getSlots());
+        }
+    }
+
+    @Override
+    public void saveSlots(UUID uuid, ItemStack[] items, BitSet slots) {
+        this.items.put(uuid, items);
+        this.slots.merge(uuid, (BitSet) slots.clone(), (stored, added) -> {
+            stored.or(added);
+            return stored;
+        });
+    }
+
+    @Override
+    public void saveItems(UUID uuid, ItemStack[] items) {
+        attempt();
+        BitSet all = new BitSet(items.length);
+        all.set(0, items.length);
+        saveSlots(uuid, items, all);
+    }
+
+    /**
+     * Counts a write, waits while writes are held and fails it if failures are left.
+     */
+    private void attempt() {
+        writes.incrementAndGet();
+
+        CountDownLatch current = gate;
+        if (current != null) {
+            try {
+                current.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Interrupted", e);
+            }
+        }
+
+        if (failures.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+            throw new StorageException("Simulated outage", null);
+        }
+    }
+
+    // ============================================================
+    // Unused Provider Calls
+    // ============================================================
+
+    @Override
+    public int getUpgrades(UUID uuid) {
+        return 0;
+    }
+
+    @Override
+    public void setUpgrades(UUID uuid, int upgrades) {
+    }
+
+    @Override
+    public int getSize(UUID uuid) {
+        return ChestRecord.BASE_SIZE;
+    }
+
+    @Override
+    public void setSize(UUID uuid, int size) {
+    }
+
+    @Override
+    public ItemStack[] loadItems(UUID uuid, int size) {
+        return new ItemStack[size];
+    }
+
+    @Override
+    public boolean setUpgradesIfVersion(UUID uuid, int upgrades, long expectedVersion) {
+        return true;
+    }
+}
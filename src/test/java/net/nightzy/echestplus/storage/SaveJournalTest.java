@@ -0,0 +1,133 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Append, confirm and replay cycle of the save journal across restarts.
+ */
+class SaveJournalTest {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final int SIZE = ChestRecord.BASE_SIZE;
+
+    private static final Logger LOGGER = Logger.getLogger(SaveJournalTest.class.getName());
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    @TempDir
+    Path folder;
+
+    private final FakeDatabase database = new FakeDatabase();
+    private final UUID uuid = UUID.randomUUID();
+
+    // ============================================================
+    // Setup
+    // ============================================================
+
+    private SaveJournal open() {
+        return new SaveJournal(folder.toFile(), LOGGER, 10L);
+    }
+
+    /**
+     * Appends one snapshot to a fresh journal and closes it, as a run that stopped before confirming.
+     */
+    private long crashedRun(boolean confirmed) {
+        SaveJournal journal = open();
+        long sequence = journal.append(uuid, journal.encode(uuid, new ItemStack[SIZE]));
+        if (confirmed) journal.confirm(sequence);
+        journal.close();
+        return sequence;
+    }
+
+    private int segments() {
+        File[] files = folder.toFile().listFiles((dir, name) -> name.endsWith(".journal"));
+        return files != null ? files.length : 0;
+    }
+
+    // ============================================================
+    // Tests
+    // ============================================================
+
+    @Test
+    void replaysUnconfirmedSnapshots() {
+        assertTrue(crashedRun(false) > 0);
+        assertEquals(1, segments());
+
+        SaveJournal journal = open();
+        assertEquals(1, journal.replay(database, id -> true));
+        journal.close();
+
+        assertEquals(SIZE, database.items.get(uuid).length);
+        assertEquals(0, segments());
+    }
+
+    @Test
+    void dropsConfirmedSnapshots() {
+        crashedRun(true);
+        assertEquals(0, segments());
+
+        SaveJournal journal = open();
+        assertEquals(0, journal.replay(database, id -> true));
+        journal.close();
+
+        assertFalse(database.items.containsKey(uuid));
+    }
+
+    @Test
+    void keepsTheSegmentsWhenReplayFails() {
+        crashedRun(false);
+
+        database.failNext(1);
+        SaveJournal failed = open();
+        assertThrows(StorageException.class, () -> failed.replay(database, id -> true));
+        failed.close();
+        assertEquals(1, segments());
+
+        // The next start replays them again
+        SaveJournal journal = open();
+        assertEquals(1, journal.replay(database, id -> true));
+        journal.close();
+        assertEquals(0, segments());
+    }
+
+    @Test
+    void skipsChestsClaimedByAnotherServer() {
+        crashedRun(false);
+
+        SaveJournal journal = open();
+        assertEquals(0, journal.replay(database, id -> false));
+        journal.close();
+
+        assertFalse(database.items.containsKey(uuid));
+    }
+
+    @Test
+    void continuesSequencesAfterReplay() {
+        long replayed = crashedRun(false);
+
+        SaveJournal journal = open();
+        journal.replay(database, id -> true);
+        long next = journal.append(uuid, journal.encode(uuid, new ItemStack[SIZE]));
+        journal.confirm(next);
+        journal.close();
+
+        assertTrue(next > replayed, next + " after " + replayed);
+    }
+}
@@ -0,0 +1,203 @@
+package net.nightzy.echestplus.storage;
+
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Retries, coalescing, backpressure and shutdown of the save queue against an in-memory provider.
+ */
+class SaveQueueTest {
+
+    // ============================================================
+    // Constants
+    // ============================================================
+
+    private static final int SIZE = ChestRecord.BASE_SIZE;
+    private static final long WAIT = 15L; // Seconds a test waits for the storage thread
+
+    private static final Logger LOGGER = Logger.getLogger(SaveQueueTest.class.getName());
+
+    // ============================================================
+    // Fields
+    // ============================================================
+
+    private final FakeDatabase database = new FakeDatabase();
+    private SaveQueue queue;
+
+    // ============================================================
+    // Setup
+    // ============================================================
+
+    private SaveQueue queue(int capacity, boolean scheduled) {
+        queue = new SaveQueue(database, LOGGER, capacity, 1, 8, scheduled, null);
+        return queue;
+    }
+
+    @AfterEach
+    void close() {
+        database.release();
+        if (queue != null) queue.shutdown(WAIT, TimeUnit.SECONDS);
+    }
+
+    private static BitSet slots(int... indexes) {
+        BitSet slots = new BitSet();
+        for (int index : indexes) {
+            slots.set(index);
+        }
+        return slots;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) fail("Condition not met within " + WAIT + " seconds");
+            Thread.sleep(5L);
+        }
+    }
+
+    // ============================================================
+    // Retries
+    // ============================================================
+
+    @Test
+    void retriesFailedSlotsUntilWritten() throws Exception {
+        queue(16, false);
+        database.failNext(2);
+
+        UUID uuid = UUID.randomUUID();
+        queue.submit(uuid, new ItemStack[SIZE], slots(3));
+        queue.whenWritten(uuid).get(WAIT, TimeUnit.SECONDS);
+
+        assertEquals(3, database.writes.get());
+        assertEquals(slots(3), database.slots.get(uuid));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void mergesSlotsSubmittedWhileRetrying() throws Exception {
+        queue(16, true);
+        database.failNext(1);
+
+        UUID uuid = UUID.randomUUID();
+        queue.submit(uuid, new ItemStack[SIZE], slots(3));
+        queue.submit(uuid, new ItemStack[SIZE], slots(5)); // Coalesced with the held save
+        queue.flush();
+        waitFor(() -> database.writes.get() == 1);
+
+        // Lands in the failed save or replaces it, either way its slots are kept
+        ItemStack[] latest = new ItemStack[SIZE];
+        queue.submit(uuid, latest, slots(7));
+        queue.whenWritten(uuid).get(WAIT, TimeUnit.SECONDS);
+
+        assertEquals(2, database.writes.get());
+        assertEquals(slots(3, 5, 7), database.slots.get(uuid));
+        assertSame(latest, database.items.get(uuid));
+    }
+
+    // ============================================================
+    // Backpressure
+    // ============================================================
+
+    @Test
+    void fullQueueDoesNotBlockTheCaller() throws Exception {
+        queue(1, false);
+        database.hold();
+
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            players.add(UUID.randomUUID());
+        }
+
+        queue.submit(players.get(0), new ItemStack[SIZE], slots(0));
+        waitFor(() -> database.writes.get() == 1); // Stuck in the provider
+        queue.submit(players.get(1), new ItemStack[SIZE], slots(0)); // Fills the queue
+
+        long start = System.nanoTime();
+        queue.submit(players.get(2), new ItemStack[SIZE], slots(0));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waited < 1000L, "waited " + waited + " ms");
+
+        database.release();
+        assertTrue(queue.drain(WAIT, TimeUnit.SECONDS));
+        for (UUID uuid : players) {
+            assertEquals(slots(0), database.slots.get(uuid));
+        }
+    }
+
+    @Test
+    void outageDoesNotBlockTheCaller() throws Exception {
+        queue(1, false);
+        database.failNext(Integer.MAX_VALUE);
+
+        List<UUID> players = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            UUID uuid = UUID.randomUUID();
+            players.add(uuid);
+            queue.submit(uuid, new ItemStack[SIZE], slots(i));
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waited < 2000L, "waited " + waited + " ms");
+
+        // Storage is back, every failed save is retried
+        database.failNext(0);
+        assertTrue(queue.drain(WAIT, TimeUnit.SECONDS));
+        for (int i = 0; i < players.size(); i++) {
+            assertEquals(slots(i), database.slots.get(players.get(i)));
+        }
+    }
+
+    // ============================================================
+    // Shutdown
+    // ============================================================
+
+    @Test
+    void shutdownWritesHeldSaves() {
+        queue(16, true);
+
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            UUID uuid = UUID.randomUUID();
+            players.add(uuid);
+            queue.submit(uuid, new ItemStack[SIZE], slots(i));
+        }
+        assertEquals(0, database.writes.get()); // Held until the next flush
+
+        assertTrue(queue.shutdown(WAIT, TimeUnit.SECONDS));
+        assertEquals(0, queue.size());
+        for (int i = 0; i < players.size(); i++) {
+            assertEquals(slots(i), database.slots.get(players.get(i)));
+        }
+
+        // A save after shutdown is written on the caller thread
+        UUID late = UUID.randomUUID();
+        queue.submit(late, new ItemStack[SIZE], slots(1));
+        assertEquals(slots(1), database.slots.get(late));
+    }
+
+    @Test
+    void shutdownWaitsForRetries() {
+        queue(16, false);
+        database.failNext(1);
+
+        UUID uuid = UUID.randomUUID();
+        queue.submit(uuid, new ItemStack[SIZE], slots(2));
+
+        assertTrue(queue.shutdown(WAIT, TimeUnit.SECONDS));
+        assertEquals(slots(2), database.slots.get(uuid));
+    }
+}